@@ -0,0 +1,133 @@
+package com.TETOSOFT.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.TETOSOFT.tilegame.MapTemplate;
+
+/**
+    The BenchmarkMaps class gives the benchmarks the files of the
+    maps they run against: the shipped maps "map1" to "map4", and
+    generated maps "large" (2,000 tiles across) and "huge"
+    (50,000 tiles across), which are written to a temporary
+    directory the first time they are used. Each map can be
+    used as a text map or compiled into a binary map.
+*/
+public class BenchmarkMaps {
+
+    private static final int MAP_HEIGHT = 12;
+
+    private static File tempDir;
+
+    /**
+        Gets the file name of the named map in the specified
+        format, "text" or "binary".
+    */
+    public static synchronized String getFile(String name,
+        String format) throws IOException
+    {
+        String textFile = getFile(name);
+        if (!format.equals("binary")) {
+            return textFile;
+        }
+        File binaryFile = new File(getTempDir(),
+            name + MapTemplate.BINARY_EXTENSION);
+        if (!binaryFile.exists()) {
+            binaryFile.deleteOnExit();
+            MapTemplate.readText(textFile).writeBinary(
+                binaryFile.getPath());
+        }
+        return binaryFile.getPath();
+    }
+
+
+    /**
+        Gets the file name of the named text map.
+    */
+    public static synchronized String getFile(String name)
+        throws IOException
+    {
+        if (name.equals("large")) {
+            return generate(name, 2000);
+        }
+        else if (name.equals("huge")) {
+            return generate(name, 50000);
+        }
+        else {
+            return "maps/" + name + ".txt";
+        }
+    }
+
+
+    /**
+        Writes a generated map of the specified width, if it
+        hasn't been written yet. The map always looks the same for
+        the same width.
+    */
+    private static String generate(String name, int width)
+        throws IOException
+    {
+        File file = new File(getTempDir(), name + ".txt");
+        if (file.exists()) {
+            return file.getPath();
+        }
+        file.deleteOnExit();
+
+        char[][] rows = new char[MAP_HEIGHT][width];
+        for (int y=0; y<MAP_HEIGHT; y++) {
+            Arrays.fill(rows[y], ' ');
+        }
+        Random random = new Random(width);
+        for (int x=0; x<width; x++) {
+            // solid ground, with a few gaps
+            if (x < 8 || random.nextInt(20) != 0) {
+                rows[MAP_HEIGHT - 1][x] = 'B';
+            }
+            // floating platforms with coins on top
+            if (random.nextInt(6) == 0) {
+                int y = 4 + random.nextInt(4);
+                rows[y][x] = 'I';
+                rows[y - 1][x] = 'o';
+            }
+            // creatures and more coins near the ground
+            int r = random.nextInt(10);
+            if (x > 8 && r == 0) {
+                rows[MAP_HEIGHT - 2][x] = '1';
+            }
+            else if (x > 8 && r == 1) {
+                rows[MAP_HEIGHT - 4][x] = '2';
+            }
+            else if (r < 5) {
+                rows[MAP_HEIGHT - 2][x] = 'o';
+            }
+        }
+        rows[MAP_HEIGHT - 2][width - 2] = '*';
+
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("# generated benchmark map");
+            for (int y=0; y<MAP_HEIGHT; y++) {
+                out.println(new String(rows[y]));
+            }
+        }
+        finally {
+            out.close();
+        }
+        return file.getPath();
+    }
+
+
+    private static File getTempDir() throws IOException {
+        if (tempDir == null) {
+            tempDir = File.createTempFile("benchmaps", "");
+            tempDir.delete();
+            tempDir.mkdir();
+            tempDir.deleteOnExit();
+        }
+        return tempDir;
+    }
+}
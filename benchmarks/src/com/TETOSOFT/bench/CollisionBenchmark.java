@@ -0,0 +1,88 @@
+package com.TETOSOFT.bench;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.tilegame.GameEngine;
+import com.TETOSOFT.tilegame.MapLoader;
+import com.TETOSOFT.tilegame.TileMap;
+import com.TETOSOFT.tilegame.TileMapDrawer;
+
+/**
+    Benchmarks GameEngine.getTileCollision() and
+    getSpriteCollision() with the player at positions spread over
+    the whole map.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+    private static final int NUM_POSITIONS = 1024;
+
+    @Param({"map1", "map2", "map3", "map4", "large", "huge"})
+    public String map;
+
+    private GameEngine engine;
+    private Sprite player;
+    private float[] positionsX;
+    private float[] positionsY;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        MapLoader mapLoader = new MapLoader(null);
+        TileMap tileMap = mapLoader.loadMap(BenchmarkMaps.getFile(map));
+        engine = new GameEngine();
+        engine.setMap(tileMap);
+        player = tileMap.getPlayer();
+
+        int width = TileMapDrawer.tilesToPixels(tileMap.getWidth());
+        int height = TileMapDrawer.tilesToPixels(tileMap.getHeight());
+        Random random = new Random(42);
+        positionsX = new float[NUM_POSITIONS];
+        positionsY = new float[NUM_POSITIONS];
+        for (int i=0; i<NUM_POSITIONS; i++) {
+            positionsX[i] = random.nextInt(width - player.getWidth());
+            positionsY[i] = random.nextInt(height - player.getHeight());
+        }
+    }
+
+
+    private void nextPosition() {
+        next = (next + 1) & (NUM_POSITIONS - 1);
+        player.setX(positionsX[next]);
+        player.setY(positionsY[next]);
+    }
+
+
+    @Benchmark
+    public Point tileCollisionHorizontal() {
+        nextPosition();
+        return engine.getTileCollision(player,
+            player.getX() + 8, player.getY());
+    }
+
+
+    @Benchmark
+    public Point tileCollisionVertical() {
+        nextPosition();
+        return engine.getTileCollision(player,
+            player.getX(), player.getY() + 16);
+    }
+
+
+    @Benchmark
+    public Sprite spriteCollision() {
+        nextPosition();
+        return engine.getSpriteCollision(player);
+    }
+}
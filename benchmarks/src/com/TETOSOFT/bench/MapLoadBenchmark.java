@@ -0,0 +1,44 @@
+package com.TETOSOFT.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.tilegame.MapLoader;
+import com.TETOSOFT.tilegame.TileMap;
+
+/**
+    Benchmarks MapLoader.loadMap() with text maps and compiled
+    binary maps. The loader is headless, so this measures reading
+    the map and creating its Sprites, not image loading.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapLoadBenchmark {
+
+    @Param({"map1", "map2", "map3", "map4", "large", "huge"})
+    public String map;
+
+    @Param({"text", "binary"})
+    public String format;
+
+    private MapLoader mapLoader;
+    private String file;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapLoader = new MapLoader(null);
+        file = BenchmarkMaps.getFile(map, format);
+    }
+
+
+    @Benchmark
+    public TileMap loadMap() throws IOException {
+        return mapLoader.loadMap(file);
+    }
+}
@@ -0,0 +1,70 @@
+package com.TETOSOFT.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.graphics.Animation;
+import com.TETOSOFT.graphics.BodyStore;
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.tilegame.GameEngine;
+import com.TETOSOFT.tilegame.sprites.Grub;
+
+/**
+    Benchmarks applying gravity to many Creatures, one Creature at
+    a time through their accessors, and in one batch over a
+    BodyStore, the way GameEngine.update() does. UpdateBenchmark
+    measures the whole update, including moving the Creatures.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsBenchmark {
+
+    private static final long ELAPSED_TIME = 16;
+
+    @Param({"100", "1000", "10000"})
+    public int count;
+
+    private Sprite[] sprites;
+    private BodyStore bodies;
+
+    @Setup
+    public void setUp() {
+        Animation anim = new Animation();
+        sprites = new Sprite[count];
+        bodies = new BodyStore();
+        for (int i=0; i<count; i++) {
+            sprites[i] = new Grub(anim, anim, anim, anim);
+            sprites[i].setX(i);
+            sprites[i].setVelocityX(0.1f);
+
+            // a second set for the batch
+            Sprite attached = new Grub(anim, anim, anim, anim);
+            attached.setX(i);
+            attached.setVelocityX(0.1f);
+            attached.attachBody(bodies);
+        }
+    }
+
+
+    @Benchmark
+    public Sprite[] perSprite() {
+        for (int i=0; i<sprites.length; i++) {
+            Sprite sprite = sprites[i];
+            sprite.setVelocityY(sprite.getVelocityY() +
+                GameEngine.GRAVITY * ELAPSED_TIME);
+        }
+        return sprites;
+    }
+
+
+    @Benchmark
+    public BodyStore batched() {
+        bodies.applyGravity(GameEngine.GRAVITY, ELAPSED_TIME);
+        return bodies;
+    }
+}
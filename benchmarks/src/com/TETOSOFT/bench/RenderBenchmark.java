@@ -0,0 +1,74 @@
+package com.TETOSOFT.bench;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.tilegame.MapLoader;
+import com.TETOSOFT.tilegame.TileMap;
+import com.TETOSOFT.tilegame.TileMapDrawer;
+
+/**
+    Benchmarks TileMapDrawer.draw() into an offscreen 800x600
+    BufferedImage, scrolling the player across the map so
+    different parts of it are drawn.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+    private static final int SCREEN_WIDTH = 800;
+    private static final int SCREEN_HEIGHT = 600;
+    private static final float SCROLL_SPEED = 7;
+
+    @Param({"map1", "map2", "map3", "map4", "large", "huge"})
+    public String map;
+
+    private BufferedImage screen;
+    private Graphics2D g;
+    private TileMapDrawer drawer;
+    private TileMap tileMap;
+    private Sprite player;
+    private float maxX;
+
+    @Setup
+    public void setUp() throws IOException {
+        screen = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT,
+            BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+
+        MapLoader mapLoader = new MapLoader(gc);
+        drawer = new TileMapDrawer();
+        drawer.setBackground(mapLoader.loadImage("background.jpg"));
+        tileMap = mapLoader.loadMap(BenchmarkMaps.getFile(map));
+        player = tileMap.getPlayer();
+        player.setY(TileMapDrawer.tilesToPixels(tileMap.getHeight() / 2));
+        maxX = TileMapDrawer.tilesToPixels(tileMap.getWidth()) -
+            SCREEN_WIDTH / 2;
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+
+    @Benchmark
+    public BufferedImage draw() {
+        float x = player.getX() + SCROLL_SPEED;
+        player.setX(x < maxX ? x : 0);
+        drawer.draw(g, tileMap, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return screen;
+    }
+}
@@ -0,0 +1,69 @@
+package com.TETOSOFT.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.tilegame.GameEngine;
+import com.TETOSOFT.tilegame.MapLoader;
+import com.TETOSOFT.tilegame.TileMap;
+import com.TETOSOFT.tilegame.sprites.Creature;
+
+/**
+    Benchmarks GameEngine.update() on the generated maps with every
+    creature awake, serially and in parallel. The player is held
+    above the start of the map, so it never dies and the map is
+    never reloaded.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+
+    private static final long ELAPSED_TIME = 16;
+
+    @Param({"large", "huge"})
+    public String map;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private GameEngine engine;
+    private Sprite player;
+
+    @Setup
+    public void setUp() throws IOException {
+        // keep AWT from looking for a display
+        System.setProperty("java.awt.headless", "true");
+        engine = new GameEngine();
+        engine.setHeadless(true);
+        engine.setParallelUpdate(parallel);
+        engine.init();
+
+        TileMap tileMap = new MapLoader(null).loadMap(
+            BenchmarkMaps.getFile(map));
+        engine.setMap(tileMap);
+        player = tileMap.getPlayer();
+        for (int i=0; i<tileMap.getSpriteCount(); i++) {
+            Sprite sprite = tileMap.getSprite(i);
+            if (sprite instanceof Creature) {
+                ((Creature)sprite).wakeUp();
+            }
+        }
+    }
+
+
+    @Benchmark
+    public TileMap update() {
+        player.setX(64);
+        player.setY(-200);
+        player.setVelocityY(0);
+        engine.update(ELAPSED_TIME);
+        return engine.getMap();
+    }
+}
@@ -0,0 +1,30 @@
+package com.TETOSOFT.events;
+
+import jdk.jfr.*;
+
+/**
+    A Flight Recorder event for the player colliding with another
+    Sprite: picking up a power up, stomping a creature or running
+    into one.
+*/
+@Name("com.tetosoft.Collision")
+@Label("Collision")
+@Category({"Super Mario Game", "Gameplay"})
+@Description("The player collided with another Sprite")
+@StackTrace(false)
+public class CollisionEvent extends Event {
+
+    @Label("Sprite")
+    @Description("The class of the Sprite the player collided with")
+    public Class<?> sprite;
+
+    @Label("Result")
+    @Description("GameEvents.POWER_UP, STOMP or HIT")
+    public String result;
+
+    @Label("X")
+    public float x;
+
+    @Label("Y")
+    public float y;
+}
@@ -0,0 +1,23 @@
+package com.TETOSOFT.events;
+
+import jdk.jfr.*;
+
+/**
+    A Flight Recorder event for one phase of a frame of the game
+    loop, like drawing it. The "frame" phase covers a whole frame,
+    from the start of one to the start of the next.
+*/
+@Name("com.tetosoft.FramePhase")
+@Label("Frame Phase")
+@Category({"Super Mario Game", "Game Loop"})
+@Description("A phase of a frame of the game loop")
+@StackTrace(false)
+public class FramePhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Frame")
+    @Description("The number of the frame, counting from 0")
+    public long frame;
+}
@@ -0,0 +1,138 @@
+package com.TETOSOFT.events;
+
+/**
+    The GameEvents class records the game's Flight Recorder
+    events. The game uses it instead of the event classes, which
+    need the jdk.jfr module: this class doesn't, so on a Java
+    runtime without Flight Recorder the game still runs, and
+    nothing is recorded.
+
+    <p>Events with a duration are started with a begin method,
+    which returns the event, or null if it isn't being recorded,
+    and are finished by passing that to the commit method. An
+    event is only created while its type is being recorded.
+*/
+public final class GameEvents {
+
+    /** The player picked up a power up. */
+    public static final String POWER_UP = "power up";
+
+    /** The player stomped a creature. */
+    public static final String STOMP = "stomp";
+
+    /** The player ran into a creature. */
+    public static final String HIT = "hit";
+
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private GameEvents() { }
+
+
+    /**
+        Checks whether the Java runtime has Flight Recorder events.
+    */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+
+    /**
+        Starts a FramePhaseEvent.
+    */
+    public static Object beginFramePhase() {
+        return AVAILABLE ? Recorder.beginFramePhase() : null;
+    }
+
+
+    /**
+        Commits a FramePhaseEvent started with beginFramePhase(),
+        if it isn't null.
+    */
+    public static void commitFramePhase(Object event, String phase,
+        long frame)
+    {
+        if (event != null) {
+            Recorder.commitFramePhase(event, phase, frame);
+        }
+    }
+
+
+    /**
+        Starts a MapLoadEvent.
+    */
+    public static Object beginMapLoad() {
+        return AVAILABLE ? Recorder.beginMapLoad() : null;
+    }
+
+
+    /**
+        Commits a MapLoadEvent started with beginMapLoad(), if it
+        isn't null.
+    */
+    public static void commitMapLoad(Object event, String file,
+        long bytes, int spriteCount, boolean reload)
+    {
+        if (event != null) {
+            Recorder.commitMapLoad(event, file, bytes, spriteCount,
+                reload);
+        }
+    }
+
+
+    /**
+        Starts a MapTransitionEvent from the specified map.
+    */
+    public static Object beginMapTransition(int fromMap) {
+        return AVAILABLE ? Recorder.beginMapTransition(fromMap) : null;
+    }
+
+
+    /**
+        Commits a MapTransitionEvent started with
+        beginMapTransition(), if it isn't null.
+    */
+    public static void commitMapTransition(Object event, int toMap) {
+        if (event != null) {
+            Recorder.commitMapTransition(event, toMap);
+        }
+    }
+
+
+    /**
+        Records a CollisionEvent of the player with a Sprite. The
+        result is POWER_UP, STOMP or HIT.
+    */
+    public static void collision(Class<?> sprite, String result,
+        float x, float y)
+    {
+        if (AVAILABLE) {
+            Recorder.collision(sprite, result, x, y);
+        }
+    }
+
+
+    /**
+        Records a PlayerDeathEvent.
+    */
+    public static void playerDeath(int map, Class<?> creature,
+        float x, float y, int livesLeft)
+    {
+        if (AVAILABLE) {
+            Recorder.playerDeath(map, creature, x, y, livesLeft);
+        }
+    }
+
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }
+        catch (ClassNotFoundException ex) {
+            return false;
+        }
+        catch (LinkageError ex) {
+            return false;
+        }
+    }
+}
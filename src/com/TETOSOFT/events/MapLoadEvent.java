@@ -0,0 +1,31 @@
+package com.TETOSOFT.events;
+
+import jdk.jfr.*;
+
+/**
+    A Flight Recorder event for creating a playable map, either
+    by reading a map file or by starting the current map over.
+*/
+@Name("com.tetosoft.MapLoad")
+@Label("Map Load")
+@Category({"Super Mario Game", "Maps"})
+@Description("A map read from a file, or started over")
+public class MapLoadEvent extends Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("Bytes")
+    @Description("The size of the map file")
+    @DataAmount
+    public long bytes;
+
+    @Label("Sprite Count")
+    @Description("The number of Sprites placed in the map")
+    public int spriteCount;
+
+    @Label("Reload")
+    @Description("Whether the map was started over from memory " +
+        "instead of read")
+    public boolean reload;
+}
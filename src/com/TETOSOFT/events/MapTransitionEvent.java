@@ -0,0 +1,21 @@
+package com.TETOSOFT.events;
+
+import jdk.jfr.*;
+
+/**
+    A Flight Recorder event for the player reaching the goal and
+    moving on to the next map. The duration is the time taken to
+    switch maps.
+*/
+@Name("com.tetosoft.MapTransition")
+@Label("Map Transition")
+@Category({"Super Mario Game", "Maps"})
+@Description("The player moved on to the next map")
+public class MapTransitionEvent extends Event {
+
+    @Label("From Map")
+    public int fromMap;
+
+    @Label("To Map")
+    public int toMap;
+}
@@ -0,0 +1,31 @@
+package com.TETOSOFT.events;
+
+import jdk.jfr.*;
+
+/**
+    A Flight Recorder event for the player running into a
+    creature and dying.
+*/
+@Name("com.tetosoft.PlayerDeath")
+@Label("Player Death")
+@Category({"Super Mario Game", "Gameplay"})
+@Description("The player ran into a creature")
+@StackTrace(false)
+public class PlayerDeathEvent extends Event {
+
+    @Label("Map")
+    public int map;
+
+    @Label("Creature")
+    @Description("The class of the creature the player ran into")
+    public Class<?> creature;
+
+    @Label("X")
+    public float x;
+
+    @Label("Y")
+    public float y;
+
+    @Label("Lives Left")
+    public int livesLeft;
+}
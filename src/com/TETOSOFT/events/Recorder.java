@@ -0,0 +1,118 @@
+package com.TETOSOFT.events;
+
+import jdk.jfr.EventType;
+
+/**
+    The Recorder class creates and commits the Flight Recorder
+    events for GameEvents. It is the only class GameEvents uses
+    that needs the jdk.jfr module, so it is only loaded when the
+    module is there.
+
+    <p>Each event type's EventType is looked up once, so checking
+    whether an event is recorded doesn't create the event.
+*/
+final class Recorder {
+
+    private static final EventType FRAME_PHASE =
+        EventType.getEventType(FramePhaseEvent.class);
+    private static final EventType MAP_LOAD =
+        EventType.getEventType(MapLoadEvent.class);
+    private static final EventType MAP_TRANSITION =
+        EventType.getEventType(MapTransitionEvent.class);
+    private static final EventType COLLISION =
+        EventType.getEventType(CollisionEvent.class);
+    private static final EventType PLAYER_DEATH =
+        EventType.getEventType(PlayerDeathEvent.class);
+
+    private Recorder() { }
+
+
+    static Object beginFramePhase() {
+        if (!FRAME_PHASE.isEnabled()) {
+            return null;
+        }
+        FramePhaseEvent event = new FramePhaseEvent();
+        event.begin();
+        return event;
+    }
+
+
+    static void commitFramePhase(Object event, String phase,
+        long frame)
+    {
+        FramePhaseEvent phaseEvent = (FramePhaseEvent)event;
+        phaseEvent.phase = phase;
+        phaseEvent.frame = frame;
+        phaseEvent.commit();
+    }
+
+
+    static Object beginMapLoad() {
+        if (!MAP_LOAD.isEnabled()) {
+            return null;
+        }
+        MapLoadEvent event = new MapLoadEvent();
+        event.begin();
+        return event;
+    }
+
+
+    static void commitMapLoad(Object event, String file, long bytes,
+        int spriteCount, boolean reload)
+    {
+        MapLoadEvent loadEvent = (MapLoadEvent)event;
+        loadEvent.end();
+        loadEvent.file = file;
+        loadEvent.bytes = bytes;
+        loadEvent.spriteCount = spriteCount;
+        loadEvent.reload = reload;
+        loadEvent.commit();
+    }
+
+
+    static Object beginMapTransition(int fromMap) {
+        if (!MAP_TRANSITION.isEnabled()) {
+            return null;
+        }
+        MapTransitionEvent event = new MapTransitionEvent();
+        event.fromMap = fromMap;
+        event.begin();
+        return event;
+    }
+
+
+    static void commitMapTransition(Object event, int toMap) {
+        MapTransitionEvent transitionEvent = (MapTransitionEvent)event;
+        transitionEvent.toMap = toMap;
+        transitionEvent.commit();
+    }
+
+
+    static void collision(Class<?> sprite, String result, float x,
+        float y)
+    {
+        if (COLLISION.isEnabled()) {
+            CollisionEvent event = new CollisionEvent();
+            event.sprite = sprite;
+            event.result = result;
+            event.x = x;
+            event.y = y;
+            event.commit();
+        }
+    }
+
+
+    static void playerDeath(int map, Class<?> creature, float x,
+        float y, int livesLeft)
+    {
+        if (PLAYER_DEATH.isEnabled()) {
+            PlayerDeathEvent event = new PlayerDeathEvent();
+            event.map = map;
+            event.creature = creature;
+            event.x = x;
+            event.y = y;
+            event.livesLeft = livesLeft;
+            event.commit();
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package com.TETOSOFT.graphics;
 
 import java.awt.Image;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 public class Animation 
 {
+    /**
+        The number of bytes writeState() writes.
+    */
+    public static final int STATE_SIZE = 12;
+
     private ArrayList frames;
     private int currFrameIndex; 
     private long animTime; // تتبع الوقت منذ بداية تشغيل اللعبة
@@ -28,9 +34,18 @@ public class Animation
     }
 
     public synchronized void addFrame(Image image, long duration)
+    {
+        addFrame(new ImageRegion(image), duration);
+    }
+
+    /**
+        Adds a frame drawn from a region of an image, like a
+        frame in a TextureAtlas.
+    */
+    public synchronized void addFrame(ImageRegion region, long duration)
     {
         totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+        frames.add(new AnimFrame(region, totalDuration));
     }
 
     public synchronized void start() 
@@ -58,7 +73,30 @@ public class Animation
         }
     }
 
-    public synchronized Image getImage() 
+    /**
+        Writes where this Animation is: its current frame and
+        time. Writes STATE_SIZE bytes.
+    */
+    public synchronized void writeState(ByteBuffer out) 
+    {
+        out.putInt(currFrameIndex);
+        out.putLong(animTime);
+    }
+
+    /**
+        Moves this Animation back to where it was when
+        writeState() wrote the state.
+    */
+    public synchronized void readState(ByteBuffer in) 
+    {
+        currFrameIndex = in.getInt();
+        animTime = in.getLong();
+    }
+
+    /**
+        Gets the region of the current frame.
+    */
+    public synchronized ImageRegion getRegion() 
     {
         if (frames.size() == 0) 
         {
@@ -66,7 +104,7 @@ public class Animation
         }
         else 
         {
-            return getFrame(currFrameIndex).image;
+            return getFrame(currFrameIndex).region;
         }
     }
 
@@ -77,12 +115,12 @@ public class Animation
 
     private class AnimFrame 
     {
-        Image image;
+        ImageRegion region;
         long endTime;
 
-        public AnimFrame(Image image, long endTime) 
+        public AnimFrame(ImageRegion region, long endTime) 
         {
-            this.image = image;
+            this.region = region;
             this.endTime = endTime;
         }
     }
@@ -0,0 +1,148 @@
+package com.TETOSOFT.graphics;
+
+/**
+    The BodyStore class keeps the position and velocity of many
+    Sprites in parallel float arrays, one array per field, so
+    physics can be applied to all of them in one simple loop.
+    A Sprite attached to a BodyStore with attachBody() reads and
+    writes its position and velocity here instead of in its own
+    fields.
+
+    <p>The batch methods walk every body with straight loops over
+    the arrays and no branches, which the JIT compiler can turn
+    into SIMD instructions. Freed bodies are walked too, but are
+    not affected by gravity.
+*/
+public class BodyStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    float[] x;
+    float[] y;
+    float[] dx;
+    float[] dy;
+    float[] prevX;
+    float[] prevY;
+
+    // 1 for bodies affected by gravity, 0 for the others
+    private float[] gravityScale;
+
+    // bodies in use are below size; free ones below it are listed
+    private int size;
+    private int[] freeBodies;
+    private int numFree;
+
+    /**
+        Creates a new, empty BodyStore.
+    */
+    public BodyStore() {
+        x = new float[INITIAL_CAPACITY];
+        y = new float[INITIAL_CAPACITY];
+        dx = new float[INITIAL_CAPACITY];
+        dy = new float[INITIAL_CAPACITY];
+        prevX = new float[INITIAL_CAPACITY];
+        prevY = new float[INITIAL_CAPACITY];
+        gravityScale = new float[INITIAL_CAPACITY];
+        freeBodies = new int[INITIAL_CAPACITY];
+    }
+
+
+    /**
+        Allocates a body at rest at (0, 0), not affected by
+        gravity, and returns its index.
+    */
+    int allocate() {
+        int body;
+        if (numFree > 0) {
+            body = freeBodies[--numFree];
+        }
+        else {
+            if (size == x.length) {
+                grow();
+            }
+            body = size++;
+        }
+        x[body] = 0;
+        y[body] = 0;
+        dx[body] = 0;
+        dy[body] = 0;
+        prevX[body] = 0;
+        prevY[body] = 0;
+        gravityScale[body] = 0;
+        return body;
+    }
+
+
+    /**
+        Frees a body so it can be allocated again.
+    */
+    void free(int body) {
+        gravityScale[body] = 0;
+        if (numFree == freeBodies.length) {
+            int[] newFree = new int[numFree * 2];
+            System.arraycopy(freeBodies, 0, newFree, 0, numFree);
+            freeBodies = newFree;
+        }
+        freeBodies[numFree++] = body;
+    }
+
+
+    /**
+        Sets whether a body is affected by gravity in
+        applyGravity().
+    */
+    void setAffectedByGravity(int body, boolean affected) {
+        gravityScale[body] = affected ? 1 : 0;
+    }
+
+
+    /**
+        Gets the number of bodies in use.
+    */
+    public int getBodyCount() {
+        return size - numFree;
+    }
+
+
+    /**
+        Accelerates all the bodies affected by gravity downward
+        for the specified amount of time.
+    */
+    public void applyGravity(float gravity, long elapsedTime) {
+        float dv = gravity * elapsedTime;
+        float[] dy = this.dy;
+        float[] gravityScale = this.gravityScale;
+        for (int i=0; i<size; i++) {
+            dy[i] += gravityScale[i] * dv;
+        }
+    }
+
+
+    /**
+        Remembers the current position of all the bodies as the
+        start of the next update, like Sprite.storePosition().
+    */
+    public void storePositions() {
+        System.arraycopy(x, 0, prevX, 0, size);
+        System.arraycopy(y, 0, prevY, 0, size);
+    }
+
+
+    private void grow() {
+        int capacity = x.length * 2;
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        dx = grow(dx, capacity);
+        dy = grow(dy, capacity);
+        prevX = grow(prevX, capacity);
+        prevY = grow(prevY, capacity);
+        gravityScale = grow(gravityScale, capacity);
+    }
+
+
+    private float[] grow(float[] array, int capacity) {
+        float[] newArray = new float[capacity];
+        System.arraycopy(array, 0, newArray, 0, size);
+        return newArray;
+    }
+}
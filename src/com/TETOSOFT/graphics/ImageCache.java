@@ -0,0 +1,179 @@
+package com.TETOSOFT.graphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.ImageIcon;
+
+/**
+    The ImageCache class loads the images in a directory. Images
+    are decoded with ImageIO on the common fork-join pool, so
+    several images can be decoded at once, and converted once to
+    images compatible with the screen. Each image is only loaded
+    once, no matter how many times it is asked for.
+
+    <p>Call preload() with all the images needed at startup to
+    decode them in parallel, then get() each image, which waits
+    for it if it isn't decoded yet.
+
+    <p>Image names are matched without regard to case, since the
+    images don't all have the same extension case.
+
+    <p>If the GraphicsConfiguration is null, the cache is headless:
+    images are not decoded, and PlaceholderImages with the size
+    read from each image file's header are returned instead.
+*/
+public class ImageCache {
+
+    private GraphicsConfiguration gc;
+    private File directory;
+    private ConcurrentHashMap<String, ForkJoinTask<Image>> images;
+
+    /**
+        Creates a new ImageCache for the images in the specified
+        directory.
+    */
+    public ImageCache(GraphicsConfiguration gc, File directory) {
+        this.gc = gc;
+        this.directory = directory;
+        images = new ConcurrentHashMap<String, ForkJoinTask<Image>>();
+    }
+
+
+    /**
+        Starts loading the specified images in the background,
+        if they aren't loaded already.
+    */
+    public void preload(String[] names) {
+        for (int i=0; i<names.length; i++) {
+            getTask(names[i]);
+        }
+    }
+
+
+    /**
+        Gets an image, loading it first if needed.
+    */
+    public Image get(String name) {
+        return getTask(name).join();
+    }
+
+
+    private ForkJoinTask<Image> getTask(final String name) {
+        String key = name.toLowerCase();
+        ForkJoinTask<Image> task = images.get(key);
+        if (task == null) {
+            ForkJoinTask<Image> newTask = ForkJoinTask.adapt(
+                new Callable<Image>() {
+                    public Image call() {
+                        return load(getFile(name));
+                    }
+                });
+            task = images.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                ForkJoinPool.commonPool().execute(task);
+            }
+        }
+        return task;
+    }
+
+
+    /**
+        Gets the file of an image. If no file has exactly the
+        specified name, looks for one with the same name in a
+        different case.
+    */
+    private File getFile(String name) {
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            String[] names = directory.list();
+            if (names != null) {
+                for (int i=0; i<names.length; i++) {
+                    if (names[i].equalsIgnoreCase(name)) {
+                        return new File(directory, names[i]);
+                    }
+                }
+            }
+        }
+        return file;
+    }
+
+
+    private Image load(File file) {
+        if (gc == null) {
+            return loadPlaceholder(file);
+        }
+
+        BufferedImage image = null;
+        try {
+            image = ImageIO.read(file);
+        }
+        catch (IOException ex) {
+            // let the Toolkit try
+        }
+        if (image == null) {
+            // not a format ImageIO can read, or missing. Loading
+            // it like before gives the same broken image for a
+            // missing file.
+            return new ImageIcon(file.getPath()).getImage();
+        }
+
+        // convert to the screen's format, so drawing it doesn't
+        // need any conversion
+        Image compatibleImage = gc.createCompatibleImage(
+            image.getWidth(), image.getHeight(),
+            image.getTransparency());
+        Graphics2D g = (Graphics2D)compatibleImage.getGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return compatibleImage;
+    }
+
+
+    /**
+        Creates a PlaceholderImage with the size of an image
+        file, read from the file's header without decoding the
+        image. Like an ImageIcon, a missing image has a size of
+        -1 by -1.
+    */
+    private Image loadPlaceholder(File file) {
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream(file);
+            if (in != null) {
+                try {
+                    Iterator<ImageReader> readers =
+                        ImageIO.getImageReaders(in);
+                    if (readers.hasNext()) {
+                        ImageReader reader = readers.next();
+                        try {
+                            reader.setInput(in, true, true);
+                            return new PlaceholderImage(
+                                reader.getWidth(0), reader.getHeight(0));
+                        }
+                        finally {
+                            reader.dispose();
+                        }
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+        catch (IOException ex) {
+            // treat it as missing
+        }
+        return new PlaceholderImage(-1, -1);
+    }
+}
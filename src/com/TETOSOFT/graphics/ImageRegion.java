@@ -0,0 +1,113 @@
+package com.TETOSOFT.graphics;
+
+import java.awt.Graphics;
+import java.awt.Image;
+
+/**
+    An ImageRegion is a rectangle of an Image, like one frame in
+    a TextureAtlas, or a whole Image on its own. Animation frames
+    and tiles are ImageRegions, and are drawn with draw().
+*/
+public class ImageRegion {
+
+    private Image image;
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    private boolean wholeImage;
+
+    /**
+        Creates a new ImageRegion covering a whole Image.
+    */
+    public ImageRegion(Image image) {
+        this.image = image;
+        this.width = image.getWidth(null);
+        this.height = image.getHeight(null);
+        this.wholeImage = true;
+    }
+
+
+    /**
+        Creates a new ImageRegion covering the specified
+        rectangle of an Image.
+    */
+    public ImageRegion(Image image, int x, int y, int width,
+        int height)
+    {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        moveTo(image, x, y);
+    }
+
+
+    /**
+        Creates a new ImageRegion of the specified size that isn't
+        part of any Image yet. Subclasses that create their Image
+        later override getImage() and draw().
+    */
+    protected ImageRegion(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+
+    /**
+        Moves this region to another Image, like when the
+        TextureAtlas copies it into one of its pages. The size
+        stays the same.
+    */
+    void moveTo(Image image, int x, int y) {
+        this.image = image;
+        this.x = x;
+        this.y = y;
+        wholeImage = (x == 0 && y == 0 &&
+            width == image.getWidth(null) &&
+            height == image.getHeight(null));
+    }
+
+
+    /**
+        Gets the Image this region is part of.
+    */
+    public Image getImage() {
+        return image;
+    }
+
+
+    public int getX() {
+        return x;
+    }
+
+
+    public int getY() {
+        return y;
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+        Draws this region with its top-left corner at (dx, dy).
+    */
+    public void draw(Graphics g, int dx, int dy) {
+        if (wholeImage) {
+            g.drawImage(image, dx, dy, null);
+        }
+        else {
+            g.drawImage(image,
+                dx, dy, dx + width, dy + height,
+                x, y, x + width, y + height,
+                null);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.TETOSOFT.graphics;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.ImageObserver;
+import java.awt.image.ImageProducer;
+import java.awt.image.MemoryImageSource;
+
+/**
+    A PlaceholderImage is an Image that only has a size. It has no
+    pixels of its own, and is used in place of real images when
+    nothing is drawn, like in headless simulations, where Sprites
+    only need their bounds for collisions.
+*/
+public class PlaceholderImage extends Image {
+
+    private int width;
+    private int height;
+
+    /**
+        Creates a new PlaceholderImage with the specified size.
+    */
+    public PlaceholderImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+
+    public int getWidth(ImageObserver observer) {
+        return width;
+    }
+
+
+    public int getHeight(ImageObserver observer) {
+        return height;
+    }
+
+
+    /**
+        Gets a producer of a fully transparent image of this
+        size.
+    */
+    public ImageProducer getSource() {
+        int w = Math.max(width, 0);
+        int h = Math.max(height, 0);
+        return new MemoryImageSource(w, h, new int[w * h], 0, w);
+    }
+
+
+    /**
+        PlaceholderImages can't be drawn to.
+    */
+    public Graphics getGraphics() {
+        throw new UnsupportedOperationException(
+            "Can't draw to a placeholder image");
+    }
+
+
+    public Object getProperty(String name, ImageObserver observer) {
+        return UndefinedProperty;
+    }
+}
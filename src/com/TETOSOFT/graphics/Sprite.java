@@ -1,6 +1,6 @@
 package com.TETOSOFT.graphics;
 
-import java.awt.Image;
+import java.nio.ByteBuffer;
 
 public class Sprite {
 
@@ -12,6 +12,19 @@ public class Sprite {
     private float dx;
     private float dy;
 
+    // position at the start of the last update, for interpolation
+    private float prevX;
+    private float prevY;
+
+    // when attached to a BodyStore, the position and velocity are
+    // kept there instead of in the fields above
+    private BodyStore bodies;
+    private int body;
+
+    // the handle of this Sprite in the store of Sprites it was
+    // last added to
+    private int storeHandle = -1;
+
     
     public Sprite(Animation anim) 
     {
@@ -22,79 +35,314 @@ public class Sprite {
     
     public void update(long elapsedTime) 
     {
-        x += dx * elapsedTime;
-        y += dy * elapsedTime;
+        if (bodies == null) {
+            x += dx * elapsedTime;
+            y += dy * elapsedTime;
+        }
+        else {
+            bodies.x[body] += bodies.dx[body] * elapsedTime;
+            bodies.y[body] += bodies.dy[body] * elapsedTime;
+        }
         anim.update(elapsedTime);
     }
 
+
+    /**
+        Resets this Sprite so it can be used again, like a new
+        Sprite with the same Animation: it is taken out of its
+        BodyStore, stopped at (0, 0) and its Animation restarted.
+    */
+    public void reset()
+    {
+        detachBody();
+        x = 0;
+        y = 0;
+        dx = 0;
+        dy = 0;
+        prevX = 0;
+        prevY = 0;
+        anim.start();
+    }
+
+
+    /**
+        Moves the position and velocity of this Sprite into a
+        BodyStore, so batch physics can be applied to it along
+        with other Sprites. Does nothing if it is already in a
+        BodyStore.
+    */
+    public void attachBody(BodyStore bodies)
+    {
+        if (this.bodies != null) {
+            return;
+        }
+        int body = bodies.allocate();
+        bodies.x[body] = x;
+        bodies.y[body] = y;
+        bodies.dx[body] = dx;
+        bodies.dy[body] = dy;
+        bodies.prevX[body] = prevX;
+        bodies.prevY[body] = prevY;
+        this.bodies = bodies;
+        this.body = body;
+    }
+
+
+    /**
+        Moves the position and velocity of this Sprite back out of
+        its BodyStore.
+    */
+    public void detachBody()
+    {
+        if (bodies == null) {
+            return;
+        }
+        x = bodies.x[body];
+        y = bodies.y[body];
+        dx = bodies.dx[body];
+        dy = bodies.dy[body];
+        prevX = bodies.prevX[body];
+        prevY = bodies.prevY[body];
+        bodies.free(body);
+        bodies = null;
+    }
+
+
+    /**
+        Gets the BodyStore this Sprite is attached to, or null if
+        it isn't attached to one.
+    */
+    public BodyStore getBodyStore()
+    {
+        return bodies;
+    }
+
+
+    /**
+        Gets the handle the store of Sprites this Sprite was last
+        added to gave it, or -1. The store checks the handle is
+        its own before using it.
+    */
+    public int getStoreHandle()
+    {
+        return storeHandle;
+    }
+
+
+    /**
+        Sets the handle of this Sprite in a store of Sprites. Only
+        called by the store.
+    */
+    public void setStoreHandle(int storeHandle)
+    {
+        this.storeHandle = storeHandle;
+    }
+
+
+    /**
+        Sets whether BodyStore.applyGravity() accelerates this
+        Sprite. Only used while attached to a BodyStore.
+    */
+    protected void setAffectedByGravity(boolean affected)
+    {
+        if (bodies != null) {
+            bodies.setAffectedByGravity(body, affected);
+        }
+    }
+
     
     public float getX() 
     {
-        return x;
+        return (bodies == null) ? x : bodies.x[body];
     }
 
     
     public float getY() {
-        return y;
+        return (bodies == null) ? y : bodies.y[body];
     }
 
     
     public void setX(float x) 
     {
-        this.x = x;
+        if (bodies == null) {
+            this.x = x;
+        }
+        else {
+            bodies.x[body] = x;
+        }
     }
 
    
     public void setY(float y)
     {
-        this.y = y;
+        if (bodies == null) {
+            this.y = y;
+        }
+        else {
+            bodies.y[body] = y;
+        }
+    }
+
+
+    /**
+        Remembers the current position as the start of the next
+        update, so drawing can interpolate between the two.
+    */
+    public void storePosition()
+    {
+        if (bodies == null) {
+            prevX = x;
+            prevY = y;
+        }
+        else {
+            bodies.prevX[body] = bodies.x[body];
+            bodies.prevY[body] = bodies.y[body];
+        }
+    }
+
+
+    /**
+        Gets the x position to draw at, interpolated between the
+        start and the end of the last update. An alpha of 1 is
+        the current position.
+    */
+    public float getDrawX(float alpha)
+    {
+        float x = getX();
+        if (alpha >= 1) {
+            return x;
+        }
+        float prevX = (bodies == null) ? this.prevX : bodies.prevX[body];
+        return prevX + (x - prevX) * alpha;
+    }
+
+
+    /**
+        Gets the y position to draw at, interpolated between the
+        start and the end of the last update. An alpha of 1 is
+        the current position.
+    */
+    public float getDrawY(float alpha)
+    {
+        float y = getY();
+        if (alpha >= 1) {
+            return y;
+        }
+        float prevY = (bodies == null) ? this.prevY : bodies.prevY[body];
+        return prevY + (y - prevY) * alpha;
     }
 
    
     public int getWidth() 
     {
-        return anim.getImage().getWidth(null);
+        return anim.getRegion().getWidth();
     }
 
     
     public int getHeight() 
     {
-        return anim.getImage().getHeight(null);
+        return anim.getRegion().getHeight();
     }
 
     
     public float getVelocityX() 
     {
-        return dx;
+        return (bodies == null) ? dx : bodies.dx[body];
     }
 
    
     public float getVelocityY()
     {
-        return dy;
+        return (bodies == null) ? dy : bodies.dy[body];
     }
 
     
     public void setVelocityX(float dx) 
     {
-        this.dx = dx;
+        if (bodies == null) {
+            this.dx = dx;
+        }
+        else {
+            bodies.dx[body] = dx;
+        }
     }
 
     
     public void setVelocityY(float dy) 
     {
-        this.dy = dy;
+        if (bodies == null) {
+            this.dy = dy;
+        }
+        else {
+            bodies.dy[body] = dy;
+        }
     }
 
     
-    public Image getImage() 
+    /**
+        Gets the number of bytes writeState() writes.
+    */
+    public int getStateSize()
     {
-        return anim.getImage();
+        return 6 * 4 + Animation.STATE_SIZE;
     }
 
-    
-    public Object clone() 
+
+    /**
+        Writes the state of this Sprite that changes as the game
+        runs: its position, velocity, position at the start of the
+        last update, and where its Animation is. Subclasses with
+        more state write it too.
+    */
+    public void writeState(ByteBuffer out)
     {
-        return new Sprite(anim);
+        if (bodies == null) {
+            out.putFloat(x).putFloat(y);
+            out.putFloat(dx).putFloat(dy);
+            out.putFloat(prevX).putFloat(prevY);
+        }
+        else {
+            out.putFloat(bodies.x[body]).putFloat(bodies.y[body]);
+            out.putFloat(bodies.dx[body]).putFloat(bodies.dy[body]);
+            out.putFloat(bodies.prevX[body]).putFloat(bodies.prevY[body]);
+        }
+        anim.writeState(out);
     }
+
+
+    /**
+        Puts this Sprite back in the state written by writeState(),
+        in its BodyStore if it is attached to one.
+    */
+    public void readState(ByteBuffer in)
+    {
+        if (bodies == null) {
+            x = in.getFloat();
+            y = in.getFloat();
+            dx = in.getFloat();
+            dy = in.getFloat();
+            prevX = in.getFloat();
+            prevY = in.getFloat();
+        }
+        else {
+            bodies.x[body] = in.getFloat();
+            bodies.y[body] = in.getFloat();
+            bodies.dx[body] = in.getFloat();
+            bodies.dy[body] = in.getFloat();
+            bodies.prevX[body] = in.getFloat();
+            bodies.prevY[body] = in.getFloat();
+        }
+        anim.readState(in);
+    }
+
+
+    /**
+        Gets the region of the current frame, to draw this
+        Sprite.
+    */
+    public ImageRegion getRegion() 
+    {
+        return anim.getRegion();
+    }
+
 }
@@ -0,0 +1,195 @@
+package com.TETOSOFT.graphics;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+    The TextureAtlas class packs many small Images into a few
+    large screen-compatible images, called pages, so drawing
+    different frames and tiles doesn't switch between many
+    source images.
+
+    <p>Images are added with add(), which returns an ImageRegion
+    right away. The region covers the original Image until pack()
+    is called, which copies all the added Images into pages and
+    moves their regions there. After that, the original Images
+    aren't needed any more.
+
+    <p>Mirrored and flipped copies of regions, added with
+    addTransformed(), get a place in a page too, but are only drawn
+    there the first time they're drawn.
+
+    <p>Images that don't fit on a page, or aren't loaded, are
+    left on their own.
+*/
+public class TextureAtlas {
+
+    /**
+        The default maximum width and height of a page.
+    */
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+
+    // space between regions, so filtering never reads a neighbor
+    private static final int PADDING = 1;
+
+    private GraphicsConfiguration gc;
+    private int pageSize;
+    private ArrayList<ImageRegion> pending;
+    private IdentityHashMap<Image, ImageRegion> regions;
+    private ArrayList<Image> pages;
+
+    /**
+        Creates a new TextureAtlas with pages compatible with
+        the specified GraphicsConfiguration.
+    */
+    public TextureAtlas(GraphicsConfiguration gc) {
+        this(gc, DEFAULT_PAGE_SIZE);
+    }
+
+
+    /**
+        Creates a new TextureAtlas with pages compatible with
+        the specified GraphicsConfiguration, and up to pageSize
+        pixels across and down.
+    */
+    public TextureAtlas(GraphicsConfiguration gc, int pageSize) {
+        this.gc = gc;
+        this.pageSize = pageSize;
+        pending = new ArrayList<ImageRegion>();
+        regions = new IdentityHashMap<Image, ImageRegion>();
+        pages = new ArrayList<Image>();
+    }
+
+
+    /**
+        Adds an Image to be packed, and returns its region.
+        Adding the same Image again returns the same region.
+    */
+    public ImageRegion add(Image image) {
+        ImageRegion region = regions.get(image);
+        if (region == null) {
+            region = new ImageRegion(image);
+            regions.put(image, region);
+            int width = region.getWidth();
+            int height = region.getHeight();
+            if (width > 0 && height > 0 &&
+                width <= pageSize && height <= pageSize)
+            {
+                pending.add(region);
+            }
+        }
+        return region;
+    }
+
+
+    /**
+        Adds a mirrored and/or flipped copy of a region to be
+        packed, and returns it. Its place in a page is kept empty
+        until the copy is first drawn.
+    */
+    public TransformedRegion addTransformed(ImageRegion source,
+        boolean mirror, boolean flip)
+    {
+        TransformedRegion region = new TransformedRegion(source,
+            mirror, flip, gc);
+        int width = region.getWidth();
+        int height = region.getHeight();
+        if (width > 0 && height > 0 &&
+            width <= pageSize && height <= pageSize)
+        {
+            pending.add(region);
+        }
+        return region;
+    }
+
+
+    /**
+        Copies all the Images added since the last call into new
+        pages, and moves their regions there.
+    */
+    public void pack() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ImageRegion[] toPack = pending.toArray(
+            new ImageRegion[pending.size()]);
+        pending.clear();
+
+        // shelf packing: tallest first, left to right, in rows
+        Arrays.sort(toPack, new Comparator<ImageRegion>() {
+            public int compare(ImageRegion a, ImageRegion b) {
+                return b.getHeight() - a.getHeight();
+            }
+        });
+
+        int[] regionX = new int[toPack.length];
+        int[] regionY = new int[toPack.length];
+        int pageStart = 0;
+        int shelfX = 0;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        int pageWidth = 0;
+        for (int i=0; i<toPack.length; i++) {
+            int width = toPack[i].getWidth() + PADDING;
+            int height = toPack[i].getHeight() + PADDING;
+            if (shelfX + width > pageSize) {
+                // start a new shelf
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            if (shelfY + height > pageSize) {
+                // page is full
+                createPage(toPack, regionX, regionY, pageStart, i,
+                    pageWidth, shelfY + shelfHeight);
+                pageStart = i;
+                shelfX = 0;
+                shelfY = 0;
+                shelfHeight = 0;
+                pageWidth = 0;
+            }
+            regionX[i] = shelfX;
+            regionY[i] = shelfY;
+            shelfX += width;
+            shelfHeight = Math.max(shelfHeight, height);
+            pageWidth = Math.max(pageWidth, shelfX);
+        }
+        createPage(toPack, regionX, regionY, pageStart, toPack.length,
+            pageWidth, shelfY + shelfHeight);
+    }
+
+
+    /**
+        Gets the number of pages created so far.
+    */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+
+    /**
+        Creates a page just big enough for the specified regions,
+        copies their Images into it and moves them there.
+        TransformedRegions are moved there without copying.
+    */
+    private void createPage(ImageRegion[] toPack, int[] regionX,
+        int[] regionY, int start, int end, int width, int height)
+    {
+        Image page = gc.createCompatibleImage(width, height,
+            Transparency.TRANSLUCENT);
+        Graphics2D g = (Graphics2D)page.getGraphics();
+        g.setComposite(AlphaComposite.Src);
+        for (int i=start; i<end; i++) {
+            if (!(toPack[i] instanceof TransformedRegion)) {
+                g.drawImage(toPack[i].getImage(), regionX[i], regionY[i],
+                    null);
+            }
+            toPack[i].moveTo(page, regionX[i], regionY[i]);
+        }
+        g.dispose();
+        pages.add(page);
+    }
+}
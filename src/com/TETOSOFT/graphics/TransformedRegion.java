@@ -0,0 +1,144 @@
+package com.TETOSOFT.graphics;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
+
+/**
+    A TransformedRegion is a mirrored or flipped copy of another
+    ImageRegion. The copy isn't drawn until the region is first
+    drawn, so variants that are never shown, like the "dead" frames
+    of a creature that never dies, are never drawn at all.
+
+    <p>Regions made with TextureAtlas.addTransformed() get a place
+    in an atlas page when the atlas is packed, and the copy is drawn
+    into that place, so they are drawn from the same pages as the
+    other frames. Regions that don't have a place in a page keep
+    the copy as an image of their own, only softly held, so it can
+    be thrown away when memory is low, and is drawn again the next
+    time it's needed.
+*/
+public class TransformedRegion extends ImageRegion {
+
+    private ImageRegion source;
+    private boolean mirror;
+    private boolean flip;
+    private GraphicsConfiguration gc;
+
+    // whether the region has a place in an atlas page, and whether
+    // the copy was drawn there yet
+    private boolean inAtlas;
+    private boolean drawnInAtlas;
+
+    // the copy, when the region isn't in an atlas page
+    private SoftReference<BufferedImage> image;
+
+    /**
+        Creates a new TransformedRegion of a source region. If
+        mirror is true, the copy faces the other way; if flip is
+        true, it is upside-down.
+    */
+    public TransformedRegion(ImageRegion source, boolean mirror,
+        boolean flip, GraphicsConfiguration gc)
+    {
+        super(source.getWidth(), source.getHeight());
+        this.source = source;
+        this.mirror = mirror;
+        this.flip = flip;
+        this.gc = gc;
+    }
+
+
+    /**
+        Gives this region a place in a TextureAtlas page. The copy
+        is drawn there the first time the region is drawn.
+    */
+    void moveTo(Image page, int x, int y) {
+        super.moveTo(page, x, y);
+        inAtlas = true;
+        drawnInAtlas = false;
+    }
+
+
+    /**
+        Gets the Image this region is drawn from: its atlas page,
+        or its own transformed Image, creating it if it hasn't been
+        created yet or was thrown away.
+    */
+    public Image getImage() {
+        if (getWidth() <= 0 || getHeight() <= 0) {
+            // not loaded, nothing to transform
+            return source.getImage();
+        }
+        if (inAtlas) {
+            return super.getImage();
+        }
+        BufferedImage transformed = (image == null) ? null :
+            image.get();
+        if (transformed == null) {
+            transformed = createImage();
+            // may be created twice if two threads race here,
+            // which is harmless
+            image = new SoftReference<BufferedImage>(transformed);
+        }
+        return transformed;
+    }
+
+
+    public void draw(Graphics g, int dx, int dy) {
+        if (getWidth() <= 0 || getHeight() <= 0) {
+            source.draw(g, dx, dy);
+        }
+        else if (inAtlas) {
+            if (!drawnInAtlas) {
+                // may be drawn twice if two threads race here,
+                // which is harmless
+                drawInAtlas();
+                drawnInAtlas = true;
+            }
+            super.draw(g, dx, dy);
+        }
+        else {
+            g.drawImage(getImage(), dx, dy, null);
+        }
+    }
+
+
+    /**
+        Draws the copy into this region's place in its atlas page.
+    */
+    private void drawInAtlas() {
+        // the source may be on the same page, so the copy is drawn
+        // on its own first
+        BufferedImage transformed = createImage();
+        Graphics2D g = (Graphics2D)super.getImage().getGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(transformed, getX(), getY(), null);
+        g.dispose();
+        transformed.flush();
+    }
+
+
+    private BufferedImage createImage() {
+        int width = getWidth();
+        int height = getHeight();
+
+        // set up the transform
+        AffineTransform transform = new AffineTransform();
+        transform.translate(mirror ? width : 0, flip ? height : 0);
+        transform.scale(mirror ? -1 : 1, flip ? -1 : 1);
+
+        // create a transparent (not translucent) image
+        BufferedImage newImage = gc.createCompatibleImage(width, height,
+            Transparency.BITMASK);
+
+        // draw the transformed region
+        Graphics2D g = newImage.createGraphics();
+        g.transform(transform);
+        source.draw(g, 0, 0);
+        g.dispose();
+
+        return newImage;
+    }
+}
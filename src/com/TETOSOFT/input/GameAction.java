@@ -1,6 +1,15 @@
 package com.TETOSOFT.input;
 
 
+/**
+    A GameAction is an action in the game, like jumping, that
+    can be pressed and released by keys, the mouse or a script.
+
+    <p>GameActions aren't thread-safe: they are only used by the
+    game loop. The InputManager queues the events from the AWT
+    event thread and applies them in processEvents(), once per
+    tick.
+*/
 public class GameAction 
 {
 
@@ -17,6 +26,8 @@ public class GameAction
     private int behavior;
     private int amount;
     private int state;
+    private long eventTime;
+    private long pressTime;
 
     
     public GameAction(String name) 
@@ -47,21 +58,21 @@ public class GameAction
 
 
    
-    public synchronized void tap() 
+    public void tap() 
     {
         press();
         release();
     }
 
 
-    public synchronized void press() 
+    public void press() 
     {
         press(1);
     }
 
 
     
-    public synchronized void press(int amount) 
+    public void press(int amount) 
     {
         if (state != STATE_WAITING_FOR_RELEASE) 
         {
@@ -72,19 +83,66 @@ public class GameAction
     }
 
 
-    public synchronized void release() 
+    /**
+        Presses this action for an event that happened at the
+        specified System.nanoTime().
+    */
+    public void press(int amount, long eventTime) 
+    {
+        if (state == STATE_RELEASED) 
+        {
+            pressTime = eventTime;
+        }
+        press(amount);
+        this.eventTime = eventTime;
+    }
+
+
+    public void release() 
     {
         state = STATE_RELEASED;
     }
 
 
-    public synchronized boolean isPressed() 
+    /**
+        Releases this action for an event that happened at the
+        specified System.nanoTime().
+    */
+    public void release(long eventTime) 
+    {
+        release();
+        this.eventTime = eventTime;
+    }
+
+
+    /**
+        Gets the System.nanoTime() of the event that last pressed
+        this action after it was released, or 0 if none had a
+        time. Repeated presses while it is held don't change it.
+    */
+    public long getPressTime() 
+    {
+        return pressTime;
+    }
+
+
+    /**
+        Gets the System.nanoTime() of the last event that
+        pressed or released this action, or 0 if none had a time.
+    */
+    public long getEventTime() 
+    {
+        return eventTime;
+    }
+
+
+    public boolean isPressed() 
     {
         return (getAmount() != 0);
     }
 
 
-    public synchronized int getAmount() 
+    public int getAmount() 
     {
         int retVal = amount;
         if (retVal != 0) 
@@ -32,6 +32,10 @@ public class InputManager implements KeyListener, MouseListener,
 
     private static final int NUM_KEY_CODES = 600;
 
+    // events waiting for processEvents(). Far more than can
+    // happen in one tick.
+    private static final int QUEUE_CAPACITY = 256;
+
     private GameAction[] keyActions =
         new GameAction[NUM_KEY_CODES];
     private GameAction[] mouseActions =
@@ -42,6 +46,7 @@ public class InputManager implements KeyListener, MouseListener,
     private Component comp;
     private Robot robot;
     private boolean isRecentering;
+    private InputQueue queue = new InputQueue(QUEUE_CAPACITY);
 
   
     public InputManager(Component comp) {
@@ -157,6 +162,31 @@ public class InputManager implements KeyListener, MouseListener,
 
 
     
+    /**
+        Applies the key and mouse events that happened since the
+        last call to their GameActions. The events come from the
+        AWT event thread, so the GameActions only change when the
+        game loop calls this, once at the start of each tick.
+        If the game loop fell so far behind that events were
+        lost, all GameActions are reset, so no key stays down.
+    */
+    public void processEvents() {
+        if (!queue.drain()) {
+            resetAllGameActions();
+        }
+    }
+
+
+    /**
+        Queues an event for a GameAction, timed now.
+    */
+    private void queueEvent(GameAction gameAction, int type,
+        int amount)
+    {
+        queue.offer(gameAction, type, amount, System.nanoTime());
+    }
+
+
     public static String getKeyName(int keyCode) {
         return KeyEvent.getKeyText(keyCode);
     }
@@ -243,7 +273,7 @@ public class InputManager implements KeyListener, MouseListener,
     public void keyPressed(KeyEvent e) {
         GameAction gameAction = getKeyAction(e);
         if (gameAction != null) {
-            gameAction.press();
+            queueEvent(gameAction, InputQueue.PRESS, 1);
         }
         // make sure the key isn't processed for anything else
         e.consume();
@@ -254,7 +284,7 @@ public class InputManager implements KeyListener, MouseListener,
     public void keyReleased(KeyEvent e) {
         GameAction gameAction = getKeyAction(e);
         if (gameAction != null) {
-            gameAction.release();
+            queueEvent(gameAction, InputQueue.RELEASE, 0);
         }
         // make sure the key isn't processed for anything else
         e.consume();
@@ -272,7 +302,7 @@ public class InputManager implements KeyListener, MouseListener,
     public void mousePressed(MouseEvent e) {
         GameAction gameAction = getMouseButtonAction(e);
         if (gameAction != null) {
-            gameAction.press();
+            queueEvent(gameAction, InputQueue.PRESS, 1);
         }
     }
 
@@ -281,7 +311,7 @@ public class InputManager implements KeyListener, MouseListener,
     public void mouseReleased(MouseEvent e) {
         GameAction gameAction = getMouseButtonAction(e);
         if (gameAction != null) {
-            gameAction.release();
+            queueEvent(gameAction, InputQueue.RELEASE, 0);
         }
     }
 
@@ -353,8 +383,7 @@ public class InputManager implements KeyListener, MouseListener,
             gameAction = mouseActions[codePos];
         }
         if (gameAction != null) {
-            gameAction.press(Math.abs(amount));
-            gameAction.release();
+            queueEvent(gameAction, InputQueue.TAP, Math.abs(amount));
         }
     }
 
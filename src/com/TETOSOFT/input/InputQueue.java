@@ -0,0 +1,133 @@
+package com.TETOSOFT.input;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+    The InputQueue class passes GameAction events from the AWT
+    event thread to the game loop without locking. It is a ring
+    buffer for exactly one producer thread, which adds events
+    with offer(), and one consumer thread, which applies them to
+    their GameActions with drain().
+
+    <p>Each side only writes its own position in the ring, and
+    publishes it with an ordered store after the events it
+    covers are written or read, so neither side ever waits for
+    the other. If the game loop falls so far behind that the
+    ring is full, new events are dropped, and the next drain()
+    reports it so the GameActions can be reset instead of
+    keeping a key stuck down.
+*/
+class InputQueue {
+
+    /**
+        The GameAction is pressed by the event's amount.
+    */
+    public static final int PRESS = 0;
+
+    /**
+        The GameAction is released.
+    */
+    public static final int RELEASE = 1;
+
+    /**
+        The GameAction is pressed by the event's amount and
+        released right away, like a mouse wheel step.
+    */
+    public static final int TAP = 2;
+
+    private final int mask;
+    private final GameAction[] actions;
+    private final int[] types;
+    private final int[] amounts;
+    private final long[] times;
+
+    // the next event to read, written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    // the next event to write, written only by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    // the producer's last look at head, so it doesn't read it
+    // for every event
+    private long producerHead;
+
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+
+    /**
+        Creates a new InputQueue holding up to capacity events.
+        The capacity must be a power of 2.
+    */
+    public InputQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException(
+                "Capacity must be a power of 2: " + capacity);
+        }
+        mask = capacity - 1;
+        actions = new GameAction[capacity];
+        types = new int[capacity];
+        amounts = new int[capacity];
+        times = new long[capacity];
+    }
+
+
+    /**
+        Adds an event. Returns false if the queue is full and the
+        event was dropped. Only called by the producer thread.
+    */
+    public boolean offer(GameAction action, int type, int amount,
+        long time)
+    {
+        long t = tail.get();
+        if (t - producerHead > mask) {
+            producerHead = head.get();
+            if (t - producerHead > mask) {
+                overflowed.set(true);
+                return false;
+            }
+        }
+        int i = (int)(t & mask);
+        actions[i] = action;
+        types[i] = type;
+        amounts[i] = amount;
+        times[i] = time;
+
+        // publish the event after it is written
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+
+    /**
+        Applies all the events added so far to their GameActions,
+        in the order they were added. Returns false if events were
+        dropped since the last call. Only called by the consumer
+        thread.
+    */
+    public boolean drain() {
+        long h = head.get();
+        long t = tail.get();
+        for (; h<t; h++) {
+            int i = (int)(h & mask);
+            GameAction action = actions[i];
+            actions[i] = null;
+            switch (types[i]) {
+                case PRESS:
+                    action.press(amounts[i], times[i]);
+                    break;
+                case RELEASE:
+                    action.release(times[i]);
+                    break;
+                case TAP:
+                    action.press(amounts[i], times[i]);
+                    action.release(times[i]);
+                    break;
+            }
+        }
+
+        // free the slots after they are read
+        head.lazySet(t);
+
+        return !(overflowed.get() && overflowed.getAndSet(false));
+    }
+}
@@ -0,0 +1,87 @@
+package com.TETOSOFT.input;
+
+import java.io.*;
+
+/**
+    The InputRecorder class writes the input of each tick of a
+    game to a compact binary stream, so the game can be played
+    again exactly with an InputReplay.
+
+    <p>The input of a tick is a byte of flags, one for each
+    GameAction the game checks, and the tick's elapsed time in
+    milliseconds as a variable-length number, so a usual tick
+    takes two bytes. The stream starts with a short header.
+*/
+public class InputRecorder {
+
+    /**
+        The first bytes of a recording.
+    */
+    static final byte[] MAGIC = { 'S', 'M', 'I', 'R' };
+
+    /**
+        The version of the recording format. Version 1 recordings
+        were made while creatures were woken by drawing, so they
+        don't play back the same and aren't read.
+    */
+    static final int VERSION = 2;
+
+    private OutputStream out;
+    private long numTicks;
+
+    /**
+        Creates a new InputRecorder writing to a file.
+    */
+    public InputRecorder(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+
+    /**
+        Creates a new InputRecorder writing to a stream, and
+        writes the header.
+    */
+    public InputRecorder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+
+    /**
+        Records the input of a tick. Only the low 8 bits of the
+        flags are kept.
+    */
+    public void record(int flags, long elapsedTime) throws IOException {
+        if (elapsedTime < 0) {
+            throw new IllegalArgumentException(
+                "Negative elapsed time: " + elapsedTime);
+        }
+        out.write(flags);
+
+        // 7 bits at a time, low bits first, with the high bit set
+        // on all bytes but the last
+        while (elapsedTime >= 0x80) {
+            out.write((int)(elapsedTime & 0x7f) | 0x80);
+            elapsedTime >>>= 7;
+        }
+        out.write((int)elapsedTime);
+        numTicks++;
+    }
+
+
+    /**
+        Gets the number of ticks recorded.
+    */
+    public long getTickCount() {
+        return numTicks;
+    }
+
+
+    /**
+        Writes any buffered ticks and closes the stream.
+    */
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.TETOSOFT.input;
+
+import java.io.*;
+
+/**
+    The InputReplay class reads the input of each tick from a
+    recording made by an InputRecorder. Call next() to move to
+    the next tick, then getFlags() and getElapsedTime().
+*/
+public class InputReplay {
+
+    private InputStream in;
+    private int flags;
+    private long elapsedTime;
+    private long numTicks;
+
+    /**
+        Creates a new InputReplay reading a file.
+    */
+    public InputReplay(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+
+    /**
+        Creates a new InputReplay reading a stream, and checks
+        its header.
+    */
+    public InputReplay(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        for (int i=0; i<InputRecorder.MAGIC.length; i++) {
+            if (this.in.read() != InputRecorder.MAGIC[i]) {
+                throw new IOException("Not an input recording");
+            }
+        }
+        int version = this.in.read();
+        if (version != InputRecorder.VERSION) {
+            throw new IOException(
+                "Unsupported recording version: " + version);
+        }
+    }
+
+
+    /**
+        Reads the input of the next tick. Returns false at the
+        end of the recording.
+    */
+    public boolean next() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            return false;
+        }
+        flags = b;
+
+        long time = 0;
+        int shift = 0;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Recording ends within a tick");
+            }
+            if (shift > 56) {
+                throw new IOException("Bad elapsed time");
+            }
+            time |= (long)(b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        elapsedTime = time;
+        numTicks++;
+        return true;
+    }
+
+
+    /**
+        Gets the flags of the current tick.
+    */
+    public int getFlags() {
+        return flags;
+    }
+
+
+    /**
+        Gets the elapsed time of the current tick, in
+        milliseconds.
+    */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+
+    /**
+        Gets the number of ticks read so far.
+    */
+    public long getTickCount() {
+        return numTicks;
+    }
+
+
+    /**
+        Closes the stream.
+    */
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,151 @@
+package com.TETOSOFT.input;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+/**
+    The ScriptedInput class presses and releases GameActions at
+    scheduled ticks. It replaces the InputManager when there is
+    no keyboard, like in headless simulations and bots.
+
+    <p>A script has one event per line: the tick, the name of the
+    GameAction, and either "press" or "release". Lines starting
+    with '#' are comments.
+    <pre>
+    # walk right, then jump
+    0    moveRight  press
+    120  jump       press
+    121  jump       release
+    </pre>
+*/
+public class ScriptedInput {
+
+    private HashMap<String, GameAction> actions =
+        new HashMap<String, GameAction>();
+
+    private long[] eventTicks = new long[16];
+    private GameAction[] eventActions = new GameAction[16];
+    private boolean[] eventPresses = new boolean[16];
+    private int numEvents;
+    private int nextEvent;
+
+
+    /**
+        Makes a GameAction available to scripts by its name.
+    */
+    public void mapToAction(GameAction gameAction) {
+        actions.put(gameAction.getName(), gameAction);
+    }
+
+
+    /**
+        Schedules a press or release of the named GameAction at
+        the specified tick. Events can be added in any order.
+    */
+    public void addEvent(long tick, String actionName, boolean press) {
+        GameAction gameAction = actions.get(actionName);
+        if (gameAction == null) {
+            throw new IllegalArgumentException(
+                "Unknown action: " + actionName);
+        }
+
+        if (numEvents == eventTicks.length) {
+            int capacity = numEvents * 2;
+            long[] newTicks = new long[capacity];
+            GameAction[] newActions = new GameAction[capacity];
+            boolean[] newPresses = new boolean[capacity];
+            System.arraycopy(eventTicks, 0, newTicks, 0, numEvents);
+            System.arraycopy(eventActions, 0, newActions, 0, numEvents);
+            System.arraycopy(eventPresses, 0, newPresses, 0, numEvents);
+            eventTicks = newTicks;
+            eventActions = newActions;
+            eventPresses = newPresses;
+        }
+
+        // keep the events sorted by tick, in the order added
+        int i = numEvents;
+        while (i > nextEvent && eventTicks[i - 1] > tick) {
+            eventTicks[i] = eventTicks[i - 1];
+            eventActions[i] = eventActions[i - 1];
+            eventPresses[i] = eventPresses[i - 1];
+            i--;
+        }
+        eventTicks[i] = tick;
+        eventActions[i] = gameAction;
+        eventPresses[i] = press;
+        numEvents++;
+    }
+
+
+    /**
+        Reads a script and schedules its events.
+    */
+    public void load(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        int lineNumber = 0;
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+
+            StringTokenizer tokens = new StringTokenizer(line);
+            if (tokens.countTokens() != 3) {
+                throw new IOException("Line " + lineNumber +
+                    ": expected <tick> <action> press|release");
+            }
+            try {
+                long tick = Long.parseLong(tokens.nextToken());
+                String actionName = tokens.nextToken();
+                String type = tokens.nextToken();
+                if (!type.equals("press") && !type.equals("release")) {
+                    throw new IOException("Line " + lineNumber +
+                        ": unknown event " + type);
+                }
+                addEvent(tick, actionName, type.equals("press"));
+            }
+            catch (NumberFormatException ex) {
+                throw new IOException("Line " + lineNumber +
+                    ": bad tick number");
+            }
+            catch (IllegalArgumentException ex) {
+                throw new IOException("Line " + lineNumber + ": " +
+                    ex.getMessage());
+            }
+        }
+    }
+
+
+    /**
+        Applies all events scheduled up to and including the
+        specified tick. Should be called once per tick, before
+        the GameActions are checked.
+    */
+    public void tick(long tick) {
+        while (nextEvent < numEvents && eventTicks[nextEvent] <= tick) {
+            if (eventPresses[nextEvent]) {
+                eventActions[nextEvent].press();
+            }
+            else {
+                eventActions[nextEvent].release();
+            }
+            nextEvent++;
+        }
+    }
+
+
+    /**
+        Checks if all scheduled events have been applied.
+    */
+    public boolean isFinished() {
+        return (nextEvent == numEvents);
+    }
+}
@@ -0,0 +1,297 @@
+package com.TETOSOFT.test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+    The FrameStats class measures how long each phase of the
+    game loop takes, with System.nanoTime(), and keeps the times
+    of the last frames in a ring buffer.
+
+    <p>Only the game loop thread records times, with begin(),
+    end() and endFrame(). Any thread can read them at any time
+    without locking: the ring buffer is written first and the
+    frame count published after, and a reader drops the frames
+    that were overwritten while it was copying them.
+*/
+public class FrameStats {
+
+    /**
+        Time spent updating the game, in all the updates run
+        before a frame is drawn.
+    */
+    public static final int UPDATE = 0;
+
+    /**
+        Time spent drawing a frame.
+    */
+    public static final int DRAW = 1;
+
+    /**
+        Time spent showing a drawn frame on the screen, including
+        waiting for the display.
+    */
+    public static final int PRESENT = 2;
+
+    /**
+        Time from the start of one frame to the start of the next.
+    */
+    public static final int FRAME = 3;
+
+    public static final int NUM_PHASES = 4;
+
+    private static final String[] PHASE_NAMES = {
+        "update", "draw", "present", "frame"
+    };
+
+    /**
+        The default number of frames kept.
+    */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final int mask;
+
+    // NUM_PHASES times per frame, in frame order
+    private final long[] samples;
+
+    // the number of frames recorded. Frames below it are
+    // complete in samples.
+    private final AtomicLong frameCount = new AtomicLong();
+
+    // written only by the game loop thread
+    private long[] current = new long[NUM_PHASES];
+    private long[] phaseStart = new long[NUM_PHASES];
+    private long frameStart;
+    private long frames;
+
+    /**
+        Creates a new FrameStats keeping the last
+        DEFAULT_CAPACITY frames.
+    */
+    public FrameStats() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+        Creates a new FrameStats keeping the last frames. The
+        capacity must be a power of 2.
+    */
+    public FrameStats(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException(
+                "Capacity must be a power of 2: " + capacity);
+        }
+        this.capacity = capacity;
+        mask = capacity - 1;
+        samples = new long[capacity * NUM_PHASES];
+    }
+
+
+    /**
+        Gets the name of a phase, like "update".
+    */
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+
+    /**
+        Gets the number of frames kept.
+    */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+        Gets the number of frames recorded so far.
+    */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+
+    /**
+        Marks the start of a phase of the current frame.
+    */
+    public void begin(int phase) {
+        phaseStart[phase] = System.nanoTime();
+    }
+
+
+    /**
+        Marks the end of a phase of the current frame. A phase
+        that runs several times in a frame is added up.
+    */
+    public void end(int phase) {
+        current[phase] += System.nanoTime() - phaseStart[phase];
+    }
+
+
+    /**
+        Ends the current frame and starts the next one. The time
+        of the FRAME phase is the time since the last call.
+    */
+    public void endFrame() {
+        long now = System.nanoTime();
+        if (frameStart != 0) {
+            current[FRAME] = now - frameStart;
+        }
+        frameStart = now;
+
+        int offset = (int)(frames & mask) * NUM_PHASES;
+        for (int i=0; i<NUM_PHASES; i++) {
+            samples[offset + i] = current[i];
+            current[i] = 0;
+        }
+        frames++;
+
+        // publish the frame after its times are written
+        frameCount.lazySet(frames);
+    }
+
+
+    /**
+        Copies the times of a phase, in nanoseconds, of the last
+        frames into an array, oldest first, and returns how many
+        were copied. At most dest.length frames are copied.
+    */
+    public int copyTimes(int phase, long[] dest) {
+        return copyFrames(frameCount.get(), phase, 1, dest);
+    }
+
+
+    /**
+        Copies the times of some phases of the frames before the
+        end frame into an array, one frame after another, and
+        returns how many frames were copied. Frames overwritten
+        while copying are dropped from the start.
+    */
+    private int copyFrames(long end, int firstPhase, int numPhases,
+        long[] dest)
+    {
+        int maxFrames = Math.min(capacity, dest.length / numPhases);
+        long start = Math.max(0, end - maxFrames);
+        int i = 0;
+        for (long frame=start; frame<end; frame++) {
+            int offset = (int)(frame & mask) * NUM_PHASES + firstPhase;
+            for (int j=0; j<numPhases; j++) {
+                dest[i++] = samples[offset + j];
+            }
+        }
+
+        // frames the writer got to while copying may have been
+        // overwritten, including the one it may be writing now
+        long firstValid = frameCount.get() + 1 - capacity;
+        if (firstValid > start) {
+            int dropped = (int)Math.min(firstValid - start, end - start);
+            System.arraycopy(dest, dropped * numPhases, dest, 0,
+                ((int)(end - start) - dropped) * numPhases);
+            start += dropped;
+        }
+        return (int)(end - start);
+    }
+
+
+    /**
+        Summarizes the times of a phase in the last frames.
+    */
+    public Summary summarize(int phase) {
+        Summary summary = new Summary();
+        summarize(phase, new long[capacity], summary);
+        return summary;
+    }
+
+
+    /**
+        Summarizes the times of a phase in the last frames into
+        a Summary, using the scratch array for sorting. The
+        scratch array should be at least getCapacity() long.
+    */
+    public void summarize(int phase, long[] scratch, Summary summary) {
+        int count = copyTimes(phase, scratch);
+        summary.count = count;
+        if (count == 0) {
+            summary.p50 = 0;
+            summary.p99 = 0;
+            summary.max = 0;
+            return;
+        }
+        Arrays.sort(scratch, 0, count);
+        summary.p50 = percentile(scratch, count, 50);
+        summary.p99 = percentile(scratch, count, 99);
+        summary.max = scratch[count - 1];
+    }
+
+
+    /**
+        Gets a percentile of sorted times, by the nearest rank.
+    */
+    static long percentile(long[] sorted, int count,
+        int percent)
+    {
+        int rank = (int)Math.ceil(count * percent / 100.0);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+
+    /**
+        Writes the times of the last frames as CSV, one frame per
+        line, in milliseconds.
+    */
+    public void writeCsv(Writer out) throws IOException {
+        long end = frameCount.get();
+        long[] times = new long[capacity * NUM_PHASES];
+        int count = copyFrames(end, 0, NUM_PHASES, times);
+
+        out.write("frame");
+        for (int i=0; i<NUM_PHASES; i++) {
+            out.write("," + PHASE_NAMES[i] + "_ms");
+        }
+        out.write("\n");
+        for (int j=0; j<count; j++) {
+            out.write(Long.toString(end - count + j));
+            for (int i=0; i<NUM_PHASES; i++) {
+                out.write(",");
+                out.write(formatMillis(times[j * NUM_PHASES + i]));
+            }
+            out.write("\n");
+        }
+        out.flush();
+    }
+
+
+    /**
+        Formats nanoseconds as milliseconds with three decimals.
+    */
+    public static String formatMillis(long nanos) {
+        long micros = nanos / 1000;
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            buffer.append('0');
+        }
+        if (fraction < 10) {
+            buffer.append('0');
+        }
+        buffer.append(fraction);
+        return buffer.toString();
+    }
+
+
+    /**
+        The percentiles of the times of one phase, in
+        nanoseconds.
+    */
+    public static class Summary {
+        public int count;
+        public long p50;
+        public long p99;
+        public long max;
+    }
+}
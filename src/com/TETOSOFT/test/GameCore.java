@@ -3,6 +3,7 @@ package com.TETOSOFT.test;
 import java.awt.*;
 import javax.swing.ImageIcon;
 
+import com.TETOSOFT.events.GameEvents;
 import com.TETOSOFT.graphics.ScreenManager;
 
 /**
@@ -25,9 +26,46 @@ public abstract class GameCore {
         new DisplayMode(1024, 768, 24, 0),
     };
 
+    /**
+        Default number of updates per second when running with a
+        fixed timestep.
+    */
+    public static final int DEFAULT_UPDATE_RATE = 60;
+
+    /**
+        Default maximum number of updates run back-to-back before
+        a frame is drawn, when the game falls behind.
+    */
+    public static final int DEFAULT_MAX_CATCH_UP_STEPS = 5;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
     private boolean isRunning;
     protected ScreenManager screen;
 
+    private boolean fixedTimestep = true;
+    private int updateRate = DEFAULT_UPDATE_RATE;
+    private int maxCatchUpSteps = DEFAULT_MAX_CATCH_UP_STEPS;
+    private long simulatedNanos;
+
+    private boolean headless;
+    private long maxTicks = -1;
+
+    private final FrameStats frameStats = new FrameStats();
+
+    private boolean latencyTracking;
+    private final LatencyStats latencyStats = new LatencyStats();
+
+    // the time of the oldest input in the updates since the last
+    // frame was shown, or 0 if there was none
+    private long inputTag;
+
+    // the Flight Recorder events of the phases running now, if
+    // they are being recorded
+    private final Object[] phaseEvents =
+        new Object[FrameStats.NUM_PHASES];
+
 
     /**
         Signals the game loop that it's time to quit
@@ -37,6 +75,157 @@ public abstract class GameCore {
     }
 
 
+    /**
+        Checks whether the game is running, until stop() is
+        called.
+    */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+
+    /**
+        Sets whether the game loop updates at a fixed rate
+        (the default) or once per frame with the real elapsed
+        time.
+    */
+    public void setFixedTimestep(boolean fixedTimestep) {
+        this.fixedTimestep = fixedTimestep;
+    }
+
+
+    public boolean isFixedTimestep() {
+        return fixedTimestep;
+    }
+
+
+    /**
+        Sets the number of updates per second used in fixed
+        timestep mode.
+    */
+    public void setUpdateRate(int updateRate) {
+        if (updateRate < 1 || updateRate > 1000) {
+            throw new IllegalArgumentException(
+                "Update rate out of range: " + updateRate);
+        }
+        this.updateRate = updateRate;
+    }
+
+
+    public int getUpdateRate() {
+        return updateRate;
+    }
+
+
+    /**
+        Sets the maximum number of updates run in a row to catch
+        up before drawing a frame. Time beyond that is dropped,
+        so the game slows down instead of spiralling.
+    */
+    public void setMaxCatchUpSteps(int maxCatchUpSteps) {
+        if (maxCatchUpSteps < 1) {
+            throw new IllegalArgumentException(
+                "Max catch-up steps must be positive: " +
+                maxCatchUpSteps);
+        }
+        this.maxCatchUpSteps = maxCatchUpSteps;
+    }
+
+
+    public int getMaxCatchUpSteps() {
+        return maxCatchUpSteps;
+    }
+
+
+    /**
+        Sets whether the game runs without a screen. In headless
+        mode, init() doesn't create a window and the game loop
+        only calls update(), with the fixed timestep, as fast as
+        possible. Must be called before run().
+    */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+
+    public boolean isHeadless() {
+        return headless;
+    }
+
+
+    /**
+        Sets the number of updates to run in headless mode before
+        stopping, or -1 (the default) to run until stop() is
+        called.
+    */
+    public void setMaxTicks(long maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+
+
+    /**
+        Gets the times of the phases of the last frames of the
+        game loop.
+    */
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+
+    /**
+        Sets whether the latency from input to the screen is
+        measured. When it is, the subclass tags the input it uses
+        in each update with tagInput(), and the time from the
+        oldest tagged input to the end of showing the next frame
+        is added to the LatencyStats. Showing a frame ends when
+        ScreenManager.update() returns, which is as close to the
+        frame reaching the display as the game can tell.
+    */
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+        inputTag = 0;
+    }
+
+
+    public boolean isLatencyTracking() {
+        return latencyTracking;
+    }
+
+
+    /**
+        Gets the input latencies measured so far.
+    */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+
+    /**
+        Tags input used by the current update with the
+        System.nanoTime() of its event, when latency is measured.
+        The oldest input tagged before a frame is shown counts.
+    */
+    protected void tagInput(long eventTime) {
+        if (latencyTracking && eventTime != 0 &&
+            (inputTag == 0 || eventTime < inputTag))
+        {
+            inputTag = eventTime;
+        }
+    }
+
+
+    /**
+        Adds the latency of the input tagged since the last frame,
+        now that a frame showing it is on the screen.
+    */
+    private void inputShown() {
+        if (inputTag != 0) {
+            latencyStats.add(System.nanoTime() - inputTag);
+            inputTag = 0;
+        }
+    }
+
+
     /**
         Calls init() and gameLoop()
     */
@@ -46,7 +235,9 @@ public abstract class GameCore {
             gameLoop();
         }
         finally {
-            screen.restoreScreen();
+            if (screen != null) {
+                screen.restoreScreen();
+            }
             lazilyExit();
         }
     }
@@ -80,6 +271,11 @@ public abstract class GameCore {
         Sets full screen mode and initiates and objects.
     */
     public void init() {
+        if (headless) {
+            isRunning = true;
+            return;
+        }
+
         screen = ScreenManager.getInstance();
         DisplayMode displayMode = screen.findFirstCompatibleMode(POSSIBLE_MODES);
         screen.setFullScreen(displayMode);
@@ -102,6 +298,23 @@ public abstract class GameCore {
         Runs through the game loop until stop() is called.
     */
     public void gameLoop() {
+        if (headless) {
+            headlessLoop();
+        }
+        else if (fixedTimestep) {
+            fixedTimestepLoop();
+        }
+        else {
+            variableTimestepLoop();
+        }
+    }
+
+
+    /**
+        Updates once per frame with the measured elapsed time,
+        running as fast as possible.
+    */
+    private void variableTimestepLoop() {
         long startTime = System.currentTimeMillis();
         long currTime = startTime;
 
@@ -111,23 +324,180 @@ public abstract class GameCore {
             currTime += elapsedTime;
 
             // update
+            beginPhase(FrameStats.UPDATE);
             update(elapsedTime);
+            endPhase(FrameStats.UPDATE);
+
+            drawScreen(1);
+        }
+    }
+
+
+    /**
+        Updates at a constant rate, independent of the frame
+        rate, and draws with an interpolation factor between the
+        last two updates. Sleeps until the next update is due
+        instead of spinning.
+    */
+    private void fixedTimestepLoop() {
+        long stepNanos = NANOS_PER_SECOND / updateRate;
+        long maxAccumulated = stepNanos * maxCatchUpSteps;
+        long accumulator = 0;
+        long currTime = System.nanoTime();
 
-            // draw the screen
-            Graphics2D g = screen.getGraphics();
-            draw(g);
-            g.dispose();
-            screen.update();
+        while (isRunning) {
+            long now = System.nanoTime();
+            accumulator += now - currTime;
+            currTime = now;
+
+            // drop the time we can't catch up on, for example
+            // after the window was dragged or the VM stalled
+            if (accumulator > maxAccumulated) {
+                accumulator = maxAccumulated;
+            }
+
+            // update
+            beginPhase(FrameStats.UPDATE);
+            while (accumulator >= stepNanos && isRunning) {
+                accumulator -= stepNanos;
+                update(nextStepMillis(stepNanos));
+            }
+            endPhase(FrameStats.UPDATE);
 
-            // don't take a nap! run as fast as possible
-            /*try {
-                Thread.sleep(20);
+            drawScreen((float)accumulator / stepNanos);
+
+            // take a nap until the next update is due
+            long idleNanos = stepNanos - accumulator -
+                (System.nanoTime() - currTime);
+            if (idleNanos >= NANOS_PER_MILLI) {
+                try {
+                    Thread.sleep(idleNanos / NANOS_PER_MILLI);
+                }
+                catch (InterruptedException ex) { }
+            }
+            else {
+                Thread.yield();
             }
-            catch (InterruptedException ex) { }*/
         }
     }
 
 
+    /**
+        Draws a frame, with the Sprites interpolated by alpha, and
+        shows it on the screen. The game loops call this once per
+        frame.
+    */
+    protected void drawScreen(float alpha) {
+        beginPhase(FrameStats.DRAW);
+        Graphics2D g = getDrawGraphics();
+        draw(g, alpha);
+        g.dispose();
+        endPhase(FrameStats.DRAW);
+        beginPhase(FrameStats.PRESENT);
+        showFrame();
+        endPhase(FrameStats.PRESENT);
+        inputShown();
+        endFrame();
+    }
+
+
+    /**
+        Gets the Graphics to draw the next frame with. It is
+        disposed when the frame is drawn.
+
+        <p>This is the only memory a frame allocates: the screen's
+        BufferStrategy makes a new Graphics for every frame, and
+        one can't be kept, since the buffer it draws to can change
+        from one frame to the next.
+    */
+    protected Graphics2D getDrawGraphics() {
+        return screen.getGraphics();
+    }
+
+
+    /**
+        Shows the frame drawn with the Graphics from
+        getDrawGraphics().
+    */
+    protected void showFrame() {
+        screen.update();
+    }
+
+
+    /**
+        Updates with the fixed timestep as fast as possible,
+        without drawing, until stop() is called or the maximum
+        number of ticks has run.
+    */
+    private void headlessLoop() {
+        long stepNanos = NANOS_PER_SECOND / updateRate;
+        long ticks = 0;
+        while (isRunning && (maxTicks < 0 || ticks < maxTicks)) {
+            beginPhase(FrameStats.UPDATE);
+            update(nextStepMillis(stepNanos));
+            endPhase(FrameStats.UPDATE);
+            endFrame();
+            ticks++;
+        }
+    }
+
+
+    /**
+        Marks the start of a phase of the current frame in the
+        FrameStats, and in a Flight Recorder event if recording.
+    */
+    private void beginPhase(int phase) {
+        frameStats.begin(phase);
+        beginPhaseEvent(phase);
+    }
+
+
+    private void endPhase(int phase) {
+        frameStats.end(phase);
+        commitPhaseEvent(phase);
+    }
+
+
+    /**
+        Ends the current frame and starts the next one.
+    */
+    private void endFrame() {
+        commitPhaseEvent(FrameStats.FRAME);
+        frameStats.endFrame();
+        beginPhaseEvent(FrameStats.FRAME);
+    }
+
+
+    private void beginPhaseEvent(int phase) {
+        phaseEvents[phase] = GameEvents.beginFramePhase();
+    }
+
+
+    private void commitPhaseEvent(int phase) {
+        Object event = phaseEvents[phase];
+        if (event != null) {
+            phaseEvents[phase] = null;
+            GameEvents.commitFramePhase(event,
+                FrameStats.getPhaseName(phase),
+                frameStats.getFrameCount());
+        }
+    }
+
+
+    /**
+        Advances the simulated time by one fixed step and returns
+        the step in whole milliseconds. Steps alternate (16, 17,
+        17, ... at 60Hz) so no time is lost to rounding.
+    */
+    private long nextStepMillis(long stepNanos) {
+        long elapsedTime =
+            (simulatedNanos + stepNanos) / NANOS_PER_MILLI -
+            simulatedNanos / NANOS_PER_MILLI;
+        simulatedNanos += stepNanos;
+        return elapsedTime;
+    }
+
+
     /**
         Updates the state of the game/animation based on the
         amount of elapsed time that has passed.
@@ -142,4 +512,15 @@ public abstract class GameCore {
         method.
     */
     public abstract void draw(Graphics2D g);
+
+
+    /**
+        Draws to the screen in fixed timestep mode. The alpha
+        value, from 0 to 1, is how far the current time is between
+        the last update and the next one, and can be used to
+        interpolate positions. By default, calls draw(g).
+    */
+    public void draw(Graphics2D g, float alpha) {
+        draw(g);
+    }
 }
\ No newline at end of file
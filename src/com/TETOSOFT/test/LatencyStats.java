@@ -0,0 +1,126 @@
+package com.TETOSOFT.test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+    The LatencyStats class keeps the input latencies of the last
+    presses, from the moment a key event arrives to the moment
+    the first frame updated with it has been shown, in a ring
+    buffer.
+
+    <p>Like FrameStats, only the game loop thread adds latencies,
+    and any thread can summarize them without locking.
+*/
+public class LatencyStats {
+
+    /**
+        The default number of latencies kept.
+    */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] samples;
+
+    // the number of latencies added
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+        Creates a new LatencyStats keeping the last
+        DEFAULT_CAPACITY latencies.
+    */
+    public LatencyStats() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+        Creates a new LatencyStats keeping the last latencies.
+        The capacity must be a power of 2.
+    */
+    public LatencyStats(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException(
+                "Capacity must be a power of 2: " + capacity);
+        }
+        this.capacity = capacity;
+        mask = capacity - 1;
+        samples = new long[capacity];
+    }
+
+
+    /**
+        Gets the number of latencies kept.
+    */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+        Gets the number of latencies added so far.
+    */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+        Adds a latency, in nanoseconds.
+    */
+    public void add(long nanos) {
+        long n = count.get();
+        samples[(int)(n & mask)] = nanos;
+
+        // publish the latency after it is written
+        count.lazySet(n + 1);
+    }
+
+
+    /**
+        Summarizes the last latencies.
+    */
+    public FrameStats.Summary summarize() {
+        FrameStats.Summary summary = new FrameStats.Summary();
+        summarize(new long[capacity], summary);
+        return summary;
+    }
+
+
+    /**
+        Summarizes the last latencies into a Summary, using the
+        scratch array for sorting. The scratch array should be at
+        least getCapacity() long.
+    */
+    public void summarize(long[] scratch, FrameStats.Summary summary) {
+        long end = count.get();
+        long start = Math.max(0, end - Math.min(capacity, scratch.length));
+        for (long i=start; i<end; i++) {
+            scratch[(int)(i - start)] = samples[(int)(i & mask)];
+        }
+
+        // latencies added while copying may have overwritten
+        // some, including the one that may be being written now
+        long firstValid = count.get() + 1 - capacity;
+        if (firstValid > start) {
+            int dropped = (int)Math.min(firstValid - start, end - start);
+            System.arraycopy(scratch, dropped, scratch, 0,
+                (int)(end - start) - dropped);
+            start += dropped;
+        }
+        int n = (int)(end - start);
+
+        summary.count = n;
+        if (n == 0) {
+            summary.p50 = 0;
+            summary.p99 = 0;
+            summary.max = 0;
+            return;
+        }
+        Arrays.sort(scratch, 0, n);
+        summary.p50 = FrameStats.percentile(scratch, n, 50);
+        summary.p99 = FrameStats.percentile(scratch, n, 99);
+        summary.max = scratch[n - 1];
+    }
+}
@@ -2,10 +2,20 @@ package com.TETOSOFT.tilegame;
 
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.util.Iterator;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import com.TETOSOFT.events.GameEvents;
 import com.TETOSOFT.graphics.*;
 import com.TETOSOFT.input.*;
+import com.TETOSOFT.test.FrameStats;
 import com.TETOSOFT.test.GameCore;
 import com.TETOSOFT.tilegame.sprites.*;
 
@@ -15,13 +25,105 @@ import com.TETOSOFT.tilegame.sprites.*;
 public class GameEngine extends GameCore 
 {
     
+    /**
+     * Starts the game. Options:
+     * <pre>
+     * --headless        run without a screen or keyboard
+     * --ticks N         stop after N updates (headless only)
+     * --input FILE      ScriptedInput script to play (headless only)
+     * --parallel        update creatures on several cores
+     * --record FILE     record the input of every tick to replay
+     *                   with ReplayDriver
+     * --latency         measure the latency from key presses to
+     *                   the screen, and print it at the end
+     * </pre>
+     */
     public static void main(String[] args) 
     {
-        new GameEngine().run();
+        GameEngine engine = new GameEngine();
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("--headless")) {
+                // keep AWT from looking for a display
+                System.setProperty("java.awt.headless", "true");
+                engine.setHeadless(true);
+            } else if (args[i].equals("--ticks") && i+1 < args.length) {
+                engine.setMaxTicks(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--input") && i+1 < args.length) {
+                engine.setInputScript(args[++i]);
+            } else if (args[i].equals("--parallel")) {
+                engine.setParallelUpdate(true);
+            } else if (args[i].equals("--latency")) {
+                engine.setLatencyTracking(true);
+            } else if (args[i].equals("--record") && i+1 < args.length) {
+                try {
+                    engine.setInputRecorder(
+                            new InputRecorder(new File(args[++i])));
+                } catch (IOException ex) {
+                    System.err.println("Can't record to " + args[i] +
+                            ": " + ex);
+                    System.exit(1);
+                }
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+        
+        try {
+            if (engine.isHeadless()) {
+                long startTime = System.nanoTime();
+                engine.run();
+                engine.printSummary(System.nanoTime() - startTime);
+            } else {
+                engine.run();
+                if (engine.isLatencyTracking()) {
+                    engine.printLatency();
+                }
+            }
+        } finally {
+            engine.closeInputRecorder();
+        }
     }
     
     public static final float GRAVITY = 0.002f;
     
+    /**
+     * The input flags of a tick, as recorded by an InputRecorder.
+     */
+    public static final int INPUT_MOVE_LEFT = 1;
+    public static final int INPUT_MOVE_RIGHT = 2;
+    public static final int INPUT_JUMP = 4;
+    public static final int INPUT_EXIT = 8;
+    public static final int INPUT_REWIND = 16;
+    
+    /**
+     * The width in pixels of the view around the player in which
+     * creatures wake up. It is the width of the usual screen, but
+     * fixed, so the game plays the same on any screen, headless,
+     * and in replays.
+     */
+    public static final int VIEW_WIDTH = 800;
+    
+    /**
+     * How many seconds of ticks can be played backwards.
+     */
+    public static final int REWIND_SECONDS = 5;
+    
+    /**
+     * The number of awake creatures in a map before creatures are
+     * updated in parallel, when parallel updates are on. Coins and
+     * creatures still asleep are cheap to update, so they don't
+     * count.
+     */
+    public static final int PARALLEL_THRESHOLD = 256;
+    
+    // the most Sprites a parallel task updates, unless a single
+    // region has more
+    private static final int PARALLEL_CHUNK_SIZE = 128;
+    
+    // the width in tiles of the map regions parallel tasks get
+    private static final int REGION_WIDTH_TILES = 16;
+    
     private Point pointCache = new Point();
     private TileMap map;
     private MapLoader mapLoader;
@@ -32,25 +134,101 @@ public class GameEngine extends GameCore
     private GameAction moveRight;
     private GameAction jump;
     private GameAction exit;
+    private GameAction toggleStats;
+    private GameAction exportStats;
+    private GameAction rewind;
     private int collectedStars=0;
     private int numLives=6;
+    
+    private ScriptedInput scriptedInput;
+    private String inputScript;
+    private InputRecorder inputRecorder;
+    private InputReplay inputReplay;
+    
+    // the press time of each INPUT flag's action last tagged
+    // for measuring latency
+    private long[] taggedPressTimes = new long[5];
+    private long tick;
+    private boolean parallelUpdate;
+    private GraphicsConfiguration offscreenConfig;
+    
+    // the status line, and its fields
+    private Hud hud;
+    private int coinsField;
+    private int livesField;
+    private int homeField;
+    
+    // the frame time overlay, refreshed every STATS_REFRESH_FRAMES
+    private static final int STATS_REFRESH_FRAMES = 30;
+    private static final Color STATS_BACKGROUND = new Color(0, 0, 0, 160);
+    private boolean showFrameStats;
+    private Hud frameStatsHud;
+    private Hud latencyStatsHud;
+    // the background, without and with the input latency row.
+    // Filling a translucent rectangle allocates memory every
+    // time, but drawing a translucent image doesn't.
+    private Image[] frameStatsBackgrounds = new Image[2];
+    // the p50, p99 and max fields of each row, the input latency
+    // last
+    private int[] frameStatsFields =
+            new int[(FrameStats.NUM_PHASES + 1) * 3];
+    private long frameStatsRefreshed = -STATS_REFRESH_FRAMES;
+    private long[] frameStatsScratch;
+    private FrameStats.Summary frameStatsSummary = new FrameStats.Summary();
+    
+    // maps left during the last update. Their Sprites are
+    // recycled at the start of the next one, when nothing uses
+    // them any more.
+    private ArrayList<TileMap> retiredMaps = new ArrayList<TileMap>();
+    
+    // for parallel updates, the index of each Sprite's region, the
+    // Sprite indexes sorted by region, and where each region
+    // starts in them
+    private int[] spriteRegions = new int[0];
+    private int[] regionSprites = new int[0];
+    private int[] regionStarts = new int[0];
+    private int[] regionFill = new int[0];
+    
+    // the parallel tasks, each updating a group of regions. They
+    // are kept and run again every tick, so they don't allocate.
+    private UpdateTask[] updateTasks = new UpdateTask[0];
+    private int numUpdateTasks;
+    private final UpdateAllTask updateAllTask = new UpdateAllTask();
+    
+    // the states of the last ticks played, all on rewindMap. Made
+    // in init(), for the update rate set then.
+    private RewindBuffer rewindBuffer;
+    private TileMap rewindMap;
    
     public void init()
     {
         super.init();
         
-        // set up input manager
-        initInput();
-        
-        // start resource manager
-        mapLoader = new MapLoader(screen.getFullScreenWindow().getGraphicsConfiguration());
+        if (isHeadless()) {
+            // no screen: scripted input, and only the image sizes
+            // unless frames are drawn offscreen
+            initScriptedInput();
+            mapLoader = new MapLoader(offscreenConfig);
+            if (offscreenConfig != null) {
+                initDrawer();
+            }
+        } else {
+            // set up input manager
+            initInput();
+            
+            // start resource manager
+            mapLoader = new MapLoader(screen.getFullScreenWindow().getGraphicsConfiguration());
+            
+            // load resources
+            initDrawer();
+        }
         
-        // load resources
-        drawer = new TileMapDrawer();
-        drawer.setBackground(mapLoader.loadImage("background.jpg"));
+        rewindBuffer = new RewindBuffer(REWIND_SECONDS * getUpdateRate());
         
         // load first map
         map = mapLoader.loadNextMap();
+        storePositions();
+        saveRewindState();
     }
     
     
@@ -63,11 +241,59 @@ public class GameEngine extends GameCore
     }
     
     
-    private void initInput() {
+    private void initDrawer() {
+        drawer = new TileMapDrawer();
+        drawer.setBackground(mapLoader.loadImage("background.jpg"));
+        
+        hud = new Hud();
+        hud.addLabel("Press ESC for EXIT.", Color.WHITE, 10, 20);
+        coinsField = hud.addNumber("Coins: ", Color.GREEN, 300, 20);
+        livesField = hud.addNumber("Lives: ", Color.YELLOW, 500, 20);
+        homeField = hud.addNumber("Home: ", Color.WHITE, 700, 20);
+        
+        // the frame time overlay. The input latency row is in its
+        // own Hud, since it's only drawn while it's measured.
+        frameStatsHud = new Hud();
+        frameStatsHud.addLabel("p50 ms", Color.WHITE, 90, 50);
+        frameStatsHud.addLabel("p99 ms", Color.WHITE, 170, 50);
+        frameStatsHud.addLabel("max ms", Color.WHITE, 250, 50);
+        for (int i=0; i<FrameStats.NUM_PHASES; i++) {
+            addFrameStatsRow(frameStatsHud, i, FrameStats.getPhaseName(i));
+        }
+        latencyStatsHud = new Hud();
+        addFrameStatsRow(latencyStatsHud, FrameStats.NUM_PHASES, "input");
+    }
+    
+    
+    /**
+     * Adds a row of the frame time overlay, with the name of what
+     * is timed and its p50, p99 and max time.
+     */
+    private void addFrameStatsRow(Hud statsHud, int row, String name) {
+        int y = 70 + row * 20;
+        statsHud.addLabel(name, Color.WHITE, 10, y);
+        for (int i=0; i<3; i++) {
+            frameStatsFields[row * 3 + i] =
+                    statsHud.addNumber("", Color.WHITE, 90 + i * 80, y, 3);
+        }
+    }
+    
+    
+    private void createGameActions() {
         moveLeft = new GameAction("moveLeft");
         moveRight = new GameAction("moveRight");
         jump = new GameAction("jump", GameAction.DETECT_INITAL_PRESS_ONLY);
         exit = new GameAction("exit",GameAction.DETECT_INITAL_PRESS_ONLY);
+        toggleStats = new GameAction("toggleStats",
+                GameAction.DETECT_INITAL_PRESS_ONLY);
+        exportStats = new GameAction("exportStats",
+                GameAction.DETECT_INITAL_PRESS_ONLY);
+        rewind = new GameAction("rewind");
+    }
+    
+    
+    private void initInput() {
+        createGameActions();
         
         inputManager = new InputManager(screen.getFullScreenWindow());
         inputManager.setCursor(InputManager.INVISIBLE_CURSOR);
@@ -76,28 +302,256 @@ public class GameEngine extends GameCore
         inputManager.mapToKey(moveRight, KeyEvent.VK_RIGHT);
         inputManager.mapToKey(jump, KeyEvent.VK_SPACE);
         inputManager.mapToKey(exit, KeyEvent.VK_ESCAPE);
+        inputManager.mapToKey(toggleStats, KeyEvent.VK_F3);
+        inputManager.mapToKey(exportStats, KeyEvent.VK_F4);
+        inputManager.mapToKey(rewind, KeyEvent.VK_BACK_SPACE);
+    }
+    
+    
+    /**
+     * Sets up the game actions to be driven by a script instead
+     * of the keyboard, for headless runs.
+     */
+    private void initScriptedInput() {
+        createGameActions();
+        
+        scriptedInput = new ScriptedInput();
+        scriptedInput.mapToAction(moveLeft);
+        scriptedInput.mapToAction(moveRight);
+        scriptedInput.mapToAction(jump);
+        scriptedInput.mapToAction(rewind);
+        scriptedInput.mapToAction(exit);
+        
+        if (inputScript != null) {
+            try {
+                FileReader reader = new FileReader(inputScript);
+                try {
+                    scriptedInput.load(reader);
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(
+                        "Can't load input script " + inputScript, ex);
+            }
+        }
+    }
+    
+    
+    /**
+     * Gets the ScriptedInput driving the game actions in
+     * headless mode, or null if the keyboard is used.
+     */
+    public ScriptedInput getScriptedInput() {
+        return scriptedInput;
     }
     
     
-    private void checkInput(long elapsedTime) 
+    /**
+     * Sets whether creatures are updated in parallel on the
+     * common fork-join pool, in maps with at least
+     * PARALLEL_THRESHOLD awake creatures. Creatures only collide with
+     * tiles while they move, so the results are the same either
+     * way.
+     */
+    public void setParallelUpdate(boolean parallelUpdate) {
+        this.parallelUpdate = parallelUpdate;
+    }
+    
+    
+    /**
+     * Checks whether creatures are updated in parallel.
+     */
+    public boolean isParallelUpdate() {
+        return parallelUpdate;
+    }
+    
+    
+    /**
+     * Sets the InputRecorder to write the input of every tick
+     * to, or null to stop recording.
+     */
+    public void setInputRecorder(InputRecorder inputRecorder) {
+        this.inputRecorder = inputRecorder;
+    }
+    
+    
+    /**
+     * Sets the InputReplay to take the input of each tick from
+     * instead of the game actions, or null to use the game
+     * actions. The replay must be at the tick to be updated
+     * next, so the caller moves it with next() before each
+     * update.
+     */
+    public void setInputReplay(InputReplay inputReplay) {
+        this.inputReplay = inputReplay;
+    }
+    
+    
+    /**
+     * Sets the ScriptedInput script to play in headless mode.
+     * Must be called before init().
+     */
+    public void setInputScript(String inputScript) {
+        this.inputScript = inputScript;
+    }
+    
+    
+    /**
+     * Sets the GraphicsConfiguration to load images for in
+     * headless mode, so frames can be drawn offscreen with
+     * drawFrame(). Must be called before init(). By default,
+     * headless mode only reads the image sizes and can't draw.
+     */
+    public void setOffscreenConfiguration(GraphicsConfiguration gc) {
+        offscreenConfig = gc;
+    }
+    
+    
+    /**
+     * Gets the number of updates run so far.
+     */
+    public long getTick() {
+        return tick;
+    }
+    
+    
+    /**
+     * Writes the rest of the recorded input and stops recording.
+     */
+    void closeInputRecorder() {
+        if (inputRecorder == null) {
+            return;
+        }
+        try {
+            inputRecorder.close();
+            System.out.println("Recorded " + inputRecorder.getTickCount() +
+                    " ticks of input");
+        } catch (IOException ex) {
+            System.err.println("Can't record input: " + ex);
+        }
+        inputRecorder = null;
+    }
+    
+    
+    /**
+     * Prints the input latencies measured.
+     */
+    void printLatency() {
+        FrameStats.Summary latency = getLatencyStats().summarize();
+        System.out.println(formatSummary("Input latency:", latency) +
+                " (last " + latency.count + " of " +
+                getLatencyStats().getCount() + " presses)");
+    }
+    
+    
+    /**
+     * Prints the state of a headless run.
+     */
+    void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Ticks: " + tick);
+        System.out.println("Time: " + Math.round(seconds * 1000) + " ms (" +
+                Math.round(tick / seconds) + " ticks/s)");
+        System.out.println("Map: " + mapLoader.currentMap +
+                "  Coins: " + collectedStars + "  Lives: " + numLives);
+        FrameStats.Summary update =
+                getFrameStats().summarize(FrameStats.UPDATE);
+        if (update.count == 0) {
+            return;
+        }
+        System.out.println("Update: p50 " +
+                FrameStats.formatMillis(update.p50) + "  p99 " +
+                FrameStats.formatMillis(update.p99) + "  max " +
+                FrameStats.formatMillis(update.max) + " ms (last " +
+                update.count + " ticks)");
+    }
+    
+    
+    /**
+     * Reads the input of a tick as INPUT flags: the recorded
+     * input when replaying, or else the state of the game
+     * actions. Like before, the actions moving the player are
+     * only checked while the player is alive.
+     */
+    private int readInput() {
+        if (inputReplay != null) {
+            return inputReplay.getFlags();
+        }
+        
+        int input = 0;
+        input |= pollAction(exit, INPUT_EXIT);
+        input |= pollAction(rewind, INPUT_REWIND);
+        if (((Creature)map.getPlayer()).isAlive()) {
+            input |= pollAction(moveLeft, INPUT_MOVE_LEFT);
+            input |= pollAction(moveRight, INPUT_MOVE_RIGHT);
+            input |= pollAction(jump, INPUT_JUMP);
+        }
+        return input;
+    }
+    
+    
+    /**
+     * Returns the input flag if the game action is pressed, or
+     * else 0. The first time a press is seen, its event is
+     * tagged for measuring latency.
+     */
+    private int pollAction(GameAction action, int flag) {
+        if (!action.isPressed()) {
+            return 0;
+        }
+        int index = Integer.numberOfTrailingZeros(flag);
+        long pressTime = action.getPressTime();
+        if (pressTime != taggedPressTimes[index]) {
+            taggedPressTimes[index] = pressTime;
+            tagInput(pressTime);
+        }
+        return flag;
+    }
+    
+    
+    /**
+     * Writes the input of a tick to the InputRecorder, if
+     * recording. Recording stops if the input can't be written.
+     */
+    private void recordInput(int input, long elapsedTime) {
+        if (inputRecorder == null) {
+            return;
+        }
+        try {
+            inputRecorder.record(input, elapsedTime);
+        } catch (IOException ex) {
+            System.err.println("Can't record input: " + ex);
+            inputRecorder = null;
+        }
+    }
+    
+    
+    private void checkInput(int input) 
     {
         
-        if (exit.isPressed()) {
+        if ((input & INPUT_EXIT) != 0) {
             stop();
         }
+        if (toggleStats.isPressed()) {
+            showFrameStats = !showFrameStats;
+        }
+        if (exportStats.isPressed()) {
+            exportFrameStats();
+        }
         
         Player player = (Player)map.getPlayer();
         if (player.isAlive()) 
         {
             float velocityX = 0;
-            if (moveLeft.isPressed()) 
+            if ((input & INPUT_MOVE_LEFT) != 0) 
             {
                 velocityX-=player.getMaxSpeed();
             }
-            if (moveRight.isPressed()) {
+            if ((input & INPUT_MOVE_RIGHT) != 0) {
                 velocityX+=player.getMaxSpeed();
             }
-            if (jump.isPressed()) {
+            if ((input & INPUT_JUMP) != 0) {
                 player.jump(false);
             }
             player.setVelocityX(velocityX);
@@ -107,17 +561,146 @@ public class GameEngine extends GameCore
     
     
     public void draw(Graphics2D g) {
+        draw(g, 1);
+    }
+    
+    
+    public void draw(Graphics2D g, float alpha) {
+        drawFrame(g, screen.getWidth(), screen.getHeight(), alpha);
+    }
+    
+    
+    /**
+     * Draws a frame of the specified size, with the Sprites
+     * interpolated by alpha like in draw(g, alpha).
+     */
+    public void drawFrame(Graphics2D g, int width, int height,
+            float alpha) {
+        
+        drawer.draw(g, map, width, height, alpha);
+        hud.setValue(coinsField, collectedStars);
+        hud.setValue(livesField, numLives);
+        hud.setValue(homeField, mapLoader.currentMap);
+        hud.draw(g);
+        if (showFrameStats) {
+            drawFrameStats(g);
+        }
         
-        drawer.draw(g, map, screen.getWidth(), screen.getHeight());
-        g.setColor(Color.WHITE);
-        g.drawString("Press ESC for EXIT.",10.0f,20.0f);
-        g.setColor(Color.GREEN);
-        g.drawString("Coins: "+collectedStars,300.0f,20.0f);
-        g.setColor(Color.YELLOW);
-        g.drawString("Lives: "+(numLives),500.0f,20.0f );
-        g.setColor(Color.WHITE);
-        g.drawString("Home: "+mapLoader.currentMap,700.0f,20.0f);
+    }
+    
+    
+    /**
+     * Draws the p50, p99 and max time of each phase of the last
+     * frames, and of the input latency if it is measured. The
+     * numbers are only updated every few frames, so they can be
+     * read, and are drawn by the Huds, so no text is made.
+     */
+    private void drawFrameStats(Graphics2D g) {
+        FrameStats stats = getFrameStats();
+        if (stats.getFrameCount() - frameStatsRefreshed >=
+                STATS_REFRESH_FRAMES) {
+            frameStatsRefreshed = stats.getFrameCount();
+            if (frameStatsScratch == null) {
+                frameStatsScratch = new long[stats.getCapacity()];
+            }
+            for (int i=0; i<FrameStats.NUM_PHASES; i++) {
+                stats.summarize(i, frameStatsScratch, frameStatsSummary);
+                setFrameStatsRow(frameStatsHud, i, frameStatsSummary);
+            }
+            getLatencyStats().summarize(frameStatsScratch,
+                    frameStatsSummary);
+            setFrameStatsRow(latencyStatsHud, FrameStats.NUM_PHASES,
+                    frameStatsSummary);
+        }
         
+        boolean showLatency = isLatencyTracking();
+        g.drawImage(getFrameStatsBackground(g, showLatency), 5, 30, null);
+        frameStatsHud.draw(g);
+        if (showLatency) {
+            latencyStatsHud.draw(g);
+        }
+    }
+    
+    
+    /**
+     * Gets the background of the frame time overlay, creating it
+     * the first time.
+     */
+    private Image getFrameStatsBackground(Graphics2D g,
+            boolean showLatency) {
+        int index = showLatency ? 1 : 0;
+        Image background = frameStatsBackgrounds[index];
+        if (background == null) {
+            // a line for the column names, and one for each row
+            int numLines = FrameStats.NUM_PHASES + 1 + index;
+            background = g.getDeviceConfiguration().createCompatibleImage(
+                    340, numLines * 20 + 10, Transparency.TRANSLUCENT);
+            Graphics2D bg = (Graphics2D)background.getGraphics();
+            bg.setComposite(AlphaComposite.Src);
+            bg.setColor(STATS_BACKGROUND);
+            bg.fillRect(0, 0, 340, numLines * 20 + 10);
+            bg.dispose();
+            frameStatsBackgrounds[index] = background;
+        }
+        return background;
+    }
+    
+    
+    /**
+     * Shows the times of a summary in a row of the frame time
+     * overlay, in microseconds shown as milliseconds.
+     */
+    private void setFrameStatsRow(Hud statsHud, int row,
+            FrameStats.Summary summary) {
+        statsHud.setValue(frameStatsFields[row * 3],
+                toMicros(summary.p50));
+        statsHud.setValue(frameStatsFields[row * 3 + 1],
+                toMicros(summary.p99));
+        statsHud.setValue(frameStatsFields[row * 3 + 2],
+                toMicros(summary.max));
+    }
+    
+    
+    private static int toMicros(long nanos) {
+        return (int)Math.min(Integer.MAX_VALUE, nanos / 1000);
+    }
+    
+    
+    private static String formatSummary(String name,
+            FrameStats.Summary summary) {
+        return name +
+                "  p50 " + FrameStats.formatMillis(summary.p50) +
+                "  p99 " + FrameStats.formatMillis(summary.p99) +
+                "  max " + FrameStats.formatMillis(summary.max) +
+                " ms";
+    }
+    
+    
+    /**
+     * Writes the times of the last frames to a CSV file in the
+     * current directory, in the background.
+     */
+    private void exportFrameStats() {
+        final FrameStats stats = getFrameStats();
+        final File file = new File("framestats-" +
+                System.currentTimeMillis() + ".csv");
+        Thread thread = new Thread("Frame stats export") {
+            public void run() {
+                try {
+                    FileWriter out = new FileWriter(file);
+                    try {
+                        stats.writeCsv(out);
+                    } finally {
+                        out.close();
+                    }
+                    System.out.println("Frame times written to " + file);
+                } catch (IOException ex) {
+                    System.err.println("Can't write " + file + ": " + ex);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
     }
     
     
@@ -128,12 +711,33 @@ public class GameEngine extends GameCore
         return map;
     }
     
+    
+    /**
+     * Sets the current map.
+     */
+    public void setMap(TileMap map) {
+        this.map = map;
+        storePositions();
+    }
+    
     /**
      * Gets the tile that a Sprites collides with. Only the
      * Sprite's X or Y should be changed, not both. Returns null
      * if no collision is detected.
      */
     public Point getTileCollision(Sprite sprite, float newX, float newY) 
+    {
+        return getTileCollision(sprite, newX, newY, pointCache);
+    }
+    
+    
+    /**
+     * Gets the tile that a Sprites collides with, storing it in
+     * the specified Point, which is returned. Returns null if no
+     * collision is detected.
+     */
+    private Point getTileCollision(Sprite sprite, float newX, float newY,
+            Point tile)
     {
         float fromX = Math.min(sprite.getX(), newX);
         float fromY = Math.min(sprite.getY(), newY);
@@ -152,10 +756,10 @@ public class GameEngine extends GameCore
         for (int x=fromTileX; x<=toTileX; x++) {
             for (int y=fromTileY; y<=toTileY; y++) {
                 if (x < 0 || x >= map.getWidth() ||
-                        map.getTile(x, y) != null) {
+                        map.isSolid(x, y)) {
                     // collision found, return the tile
-                    pointCache.setLocation(x, y);
-                    return pointCache;
+                    tile.setLocation(x, y);
+                    return tile;
                 }
             }
         }
@@ -204,10 +808,12 @@ public class GameEngine extends GameCore
      */
     public Sprite getSpriteCollision(Sprite sprite) {
         
-        // run through the list of Sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite otherSprite = (Sprite)i.next();
+        // only look at the Sprites near this one
+        int count = map.querySprites(Math.round(sprite.getX()),
+                Math.round(sprite.getY()),
+                sprite.getWidth(), sprite.getHeight());
+        for (int i=0; i<count; i++) {
+            Sprite otherSprite = map.getQueriedSprite(i);
             if (isCollision(sprite, otherSprite)) {
                 // collision found, return the Sprite
                 return otherSprite;
@@ -226,35 +832,426 @@ public class GameEngine extends GameCore
     public void update(long elapsedTime) {
         Creature player = (Creature)map.getPlayer();
         
+        // the key events since the last tick, or scripted input
+        if (inputManager != null) {
+            inputManager.processEvents();
+        }
+        if (scriptedInput != null) {
+            scriptedInput.tick(tick);
+        }
+        tick++;
+        
+        recycleRetiredMaps();
         
-        // player is dead! start map over
+        // player is dead! start map over. The old Sprites can be
+        // reused right away.
         if (player.getState() == Creature.STATE_DEAD) {
+            // no input is read, but the tick is still recorded
+            recordInput(0, elapsedTime);
+            mapLoader.recycleMap(map);
             map = mapLoader.reloadMap();
+            storePositions();
+            wakeUpCreatures();
+            saveRewindState();
             return;
         }
         
         // get keyboard/mouse input
-        checkInput(elapsedTime);
+        int input = readInput();
+        recordInput(input, elapsedTime);
+        checkInput(input);
+        
+        // rewinding goes back a tick instead of going forward
+        if ((input & INPUT_REWIND) != 0) {
+            rewind();
+            return;
+        }
         
         // update player
-        updateCreature(player, elapsedTime);
+        player.storePosition();
+        updateCreature(player, elapsedTime, pointCache);
         player.update(elapsedTime);
         
-        // update other sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite sprite = (Sprite)i.next();
-            if (sprite instanceof Creature) {
-                Creature creature = (Creature)sprite;
-                if (creature.getState() == Creature.STATE_DEAD) {
-                    i.remove();
-                } else {
-                    updateCreature(creature, elapsedTime);
+        // update other sprites. Their positions are stored and
+        // gravity is applied to all of them in one pass first.
+        // Dead creatures removed while walking the list are taken
+        // out when it's unlocked.
+        TileMap currentMap = map;
+        BodyStore bodies = currentMap.getBodyStore();
+        bodies.storePositions();
+        bodies.applyGravity(GRAVITY, elapsedTime);
+        currentMap.lockSprites();
+        try {
+            int count = currentMap.getSpriteCount();
+            
+            // remove dead creatures, and count the awake ones
+            int numAwake = 0;
+            for (int i=0; i<count; i++) {
+                Sprite sprite = currentMap.getSprite(i);
+                if (sprite instanceof Creature) {
+                    Creature creature = (Creature)sprite;
+                    if (creature.getState() == Creature.STATE_DEAD) {
+                        currentMap.removeSprite(sprite);
+                    }
+                    else if (creature.getVelocityX() != 0) {
+                        numAwake++;
+                    }
                 }
             }
-            // normal update
-            sprite.update(elapsedTime);
+            
+            // move the sprites. Each one only touches its own state
+            // and the tiles, so the map can be split into regions
+            // updated on different threads.
+            if (parallelUpdate && numAwake >= PARALLEL_THRESHOLD) {
+                int numRegions = sortByRegion(currentMap, count);
+                groupRegions(currentMap, numRegions, elapsedTime);
+                updateAllTask.reinitialize();
+                ForkJoinPool.commonPool().invoke(updateAllTask);
+            } else {
+                updateSprites(currentMap, 0, count, elapsedTime, pointCache);
+            }
+            
+            // keep the sprite grid in sync with moving creatures,
+            // in order, on this thread
+            for (int i=0; i<count; i++) {
+                Sprite sprite = currentMap.getSprite(i);
+                if (sprite instanceof Creature) {
+                    currentMap.updateSprite(sprite);
+                }
+            }
+        } finally {
+            currentMap.unlockSprites();
+        }
+        
+        wakeUpCreatures();
+        saveRewindState();
+    }
+    
+    
+    /**
+     * Wakes up the creatures in the view around the player. The
+     * view scrolls with the player the same way the screen does,
+     * but only depends on the player's position in this tick, not
+     * on what is drawn.
+     */
+    private void wakeUpCreatures() {
+        Sprite player = map.getPlayer();
+        int mapWidth = TileMapDrawer.tilesToPixels(map.getWidth());
+        int offsetX = VIEW_WIDTH / 2 - Math.round(player.getX()) -
+                TileMapDrawer.tilesToPixels(1);
+        offsetX = Math.min(offsetX, 0);
+        offsetX = Math.max(offsetX, VIEW_WIDTH - mapWidth);
+        
+        // the whole height of the map is included, so creatures
+        // above or below the view still wake up
+        int count = map.querySprites(-offsetX, 0, VIEW_WIDTH,
+                TileMapDrawer.tilesToPixels(map.getHeight()));
+        for (int i=0; i<count; i++) {
+            Sprite sprite = map.getQueriedSprite(i);
+            int x = Math.round(sprite.getX()) + offsetX;
+            if (sprite instanceof Creature && x >= 0 && x < VIEW_WIDTH) {
+                ((Creature)sprite).wakeUp();
+            }
+        }
+    }
+    
+    
+    /**
+     * Gets the most bytes saveState() writes for the current map.
+     */
+    public int getStateSize() {
+        Sprite[] spawned = map.getSpawnedSprites();
+        int size = 8 + 3 * 4 + spawned.length;
+        for (int i=0; i<spawned.length; i++) {
+            if (spawned[i] != null) {
+                size += spawned[i].getStateSize();
+            }
+        }
+        return size + map.getPlayer().getStateSize();
+    }
+    
+    
+    /**
+     * Writes the state of the game on the current map to a
+     * buffer: the lives and coins, which Sprites are still in the
+     * map, and the state of each of them and of the player. The
+     * tiles aren't written, since they never change while a map
+     * is played. The buffer must have getStateSize() bytes left.
+     */
+    public void saveState(ByteBuffer buffer) {
+        Sprite[] spawned = map.getSpawnedSprites();
+        buffer.putLong(map.getSerial());
+        buffer.putInt(spawned.length);
+        buffer.putInt(numLives);
+        buffer.putInt(collectedStars);
+        for (int i=0; i<spawned.length; i++) {
+            buffer.put((byte)(isInMap(spawned[i]) ? 1 : 0));
+        }
+        for (int i=0; i<spawned.length; i++) {
+            if (isInMap(spawned[i])) {
+                spawned[i].writeState(buffer);
+            }
+        }
+        map.getPlayer().writeState(buffer);
+    }
+    
+    
+    /**
+     * Puts the game back in a state written by saveState(). The
+     * state must have been written on the current map, since
+     * loading a map makes new Sprites.
+     * @throws IllegalArgumentException if the state was written
+     * on another map
+     */
+    public void restoreState(ByteBuffer buffer) {
+        Sprite[] spawned = map.getSpawnedSprites();
+        if (buffer.getLong() != map.getSerial() ||
+                buffer.getInt() != spawned.length) {
+            throw new IllegalArgumentException(
+                    "State was saved on another map");
+        }
+        numLives = buffer.getInt();
+        collectedStars = buffer.getInt();
+        
+        // if other Sprites were in the map, put them all back in
+        // the order they were added, so the sprite grid finds
+        // them in the same order as before
+        int inMap = buffer.position();
+        boolean sameSprites = true;
+        for (int i=0; i<spawned.length; i++) {
+            if ((buffer.get(inMap + i) != 0) != isInMap(spawned[i])) {
+                sameSprites = false;
+            }
+        }
+        if (!sameSprites) {
+            for (int i=map.getSpriteCount()-1; i>=0; i--) {
+                map.removeSprite(map.getSprite(i));
+            }
+            for (int i=0; i<spawned.length; i++) {
+                if (buffer.get(inMap + i) != 0) {
+                    map.addSprite(spawned[i]);
+                }
+            }
+        }
+        buffer.position(inMap + spawned.length);
+        
+        for (int i=0; i<spawned.length; i++) {
+            if (buffer.get(inMap + i) != 0) {
+                spawned[i].readState(buffer);
+                map.updateSprite(spawned[i]);
+            }
+        }
+        map.getPlayer().readState(buffer);
+    }
+    
+    
+    private boolean isInMap(Sprite sprite) {
+        return (sprite != null &&
+                map.getSpriteHandle(sprite) != SpriteStore.NO_HANDLE);
+    }
+    
+    
+    /**
+     * Saves the state of the game after a tick in the
+     * RewindBuffer. The states of the last map are dropped when
+     * the map changes, since it isn't played any more.
+     */
+    private void saveRewindState() {
+        if (map != rewindMap) {
+            rewindBuffer.clear();
+            rewindBuffer.ensureStateSize(getStateSize());
+            rewindMap = map;
+        }
+        saveState(rewindBuffer.push());
+    }
+    
+    
+    /**
+     * Goes back to the state of the tick before the last one
+     * saved, if there is one. Its state is kept, so rewinding
+     * stops there when the RewindBuffer runs out.
+     */
+    private void rewind() {
+        if (rewindBuffer.size() < 2) {
+            return;
+        }
+        rewindBuffer.pop();
+        restoreState(rewindBuffer.peek());
+    }
+    
+    
+    /**
+     * Returns the Sprites of the maps left during the last update
+     * to the MapLoader.
+     */
+    private void recycleRetiredMaps() {
+        for (int i=0; i<retiredMaps.size(); i++) {
+            mapLoader.recycleMap(retiredMaps.get(i));
+        }
+        retiredMaps.clear();
+    }
+    
+    
+    /**
+     * Updates the Sprites from index start up to end in a map.
+     */
+    private void updateSprites(TileMap map, int start, int end,
+            long elapsedTime, Point tile) {
+        for (int i=start; i<end; i++) {
+            updateSprite(map.getSprite(i), elapsedTime, tile);
+        }
+    }
+    
+    
+    /**
+     * Updates a Sprite other than the player. Creatures removed
+     * as dead are only animated.
+     */
+    private void updateSprite(Sprite sprite, long elapsedTime,
+            Point tile) {
+        if (sprite instanceof Creature) {
+            Creature creature = (Creature)sprite;
+            if (creature.getState() != Creature.STATE_DEAD) {
+                updateCreature(creature, elapsedTime, tile);
+            }
         }
+        // normal update
+        sprite.update(elapsedTime);
+    }
+    
+    
+    /**
+     * Sorts the indexes of the first count Sprites of a map by the
+     * region of the map they are in, in regionSprites, and returns
+     * the number of regions. Region r's Sprites start at
+     * regionStarts[r] and end at regionStarts[r + 1].
+     */
+    private int sortByRegion(TileMap map, int count) {
+        int numRegions = map.getWidth() / REGION_WIDTH_TILES + 1;
+        if (spriteRegions.length < count) {
+            spriteRegions = new int[count];
+            regionSprites = new int[count];
+        }
+        if (regionFill.length < numRegions) {
+            regionStarts = new int[numRegions + 1];
+            regionFill = new int[numRegions];
+        }
+        
+        // count the Sprites in each region
+        Arrays.fill(regionStarts, 0, numRegions + 1, 0);
+        for (int i=0; i<count; i++) {
+            int tileX = TileMapDrawer.pixelsToTiles(map.getSprite(i).getX());
+            int region = Math.max(0, Math.min(numRegions - 1,
+                    tileX / REGION_WIDTH_TILES));
+            spriteRegions[i] = region;
+            regionStarts[region + 1]++;
+        }
+        
+        // then put each one after the ones before it in its region
+        for (int r=0; r<numRegions; r++) {
+            regionStarts[r + 1] += regionStarts[r];
+            regionFill[r] = regionStarts[r];
+        }
+        for (int i=0; i<count; i++) {
+            regionSprites[regionFill[spriteRegions[i]]++] = i;
+        }
+        return numRegions;
+    }
+    
+    
+    /**
+     * Splits the regions sorted by sortByRegion() into groups of
+     * next to each other regions with up to PARALLEL_CHUNK_SIZE
+     * Sprites, and sets up an UpdateTask for each group.
+     */
+    private void groupRegions(TileMap map, int numRegions,
+            long elapsedTime) {
+        numUpdateTasks = 0;
+        int first = 0;
+        while (first < numRegions) {
+            int end = first + 1;
+            while (end < numRegions && regionStarts[end + 1] -
+                    regionStarts[first] <= PARALLEL_CHUNK_SIZE) {
+                end++;
+            }
+            if (numUpdateTasks == updateTasks.length) {
+                updateTasks = Arrays.copyOf(updateTasks,
+                        Math.max(8, numUpdateTasks * 2));
+            }
+            if (updateTasks[numUpdateTasks] == null) {
+                updateTasks[numUpdateTasks] = new UpdateTask();
+            }
+            updateTasks[numUpdateTasks++].set(map, first, end,
+                    elapsedTime);
+            first = end;
+        }
+    }
+    
+    
+    /**
+     * Updates the Sprites in a group of map regions. Each task
+     * has its own Point for tile collisions.
+     */
+    private class UpdateTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Point tile = new Point();
+        private TileMap map;
+        private int firstRegion;
+        private int endRegion;
+        private long elapsedTime;
+        
+        void set(TileMap map, int firstRegion, int endRegion,
+                long elapsedTime) {
+            this.map = map;
+            this.firstRegion = firstRegion;
+            this.endRegion = endRegion;
+            this.elapsedTime = elapsedTime;
+        }
+        
+        void updateRegions() {
+            int end = regionStarts[endRegion];
+            for (int i=regionStarts[firstRegion]; i<end; i++) {
+                updateSprite(map.getSprite(regionSprites[i]),
+                        elapsedTime, tile);
+            }
+        }
+        
+        protected void compute() {
+            updateRegions();
+        }
+    }
+    
+    
+    /**
+     * Runs the UpdateTasks set up by groupRegions(), forking all
+     * but the first to other threads.
+     */
+    private class UpdateAllTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        protected void compute() {
+            for (int i=numUpdateTasks - 1; i>0; i--) {
+                updateTasks[i].reinitialize();
+                updateTasks[i].fork();
+            }
+            updateTasks[0].updateRegions();
+            for (int i=1; i<numUpdateTasks; i++) {
+                updateTasks[i].join();
+            }
+        }
+    }
+    
+    
+    /**
+     * Stores the position of the player and all Sprites as the
+     * starting point for interpolated drawing.
+     */
+    private void storePositions() {
+        map.getPlayer().storePosition();
+        map.getBodyStore().storePositions();
     }
     
     
@@ -263,10 +1260,11 @@ public class GameEngine extends GameCore
      * aren't flying, and checks collisions.
      */
     private void updateCreature(Creature creature,
-            long elapsedTime) {
+            long elapsedTime, Point tileCache) {
         
-        // apply gravity
-        if (!creature.isFlying()) {
+        // apply gravity, unless it was already applied to the
+        // creature's BodyStore
+        if (creature.getBodyStore() == null && !creature.isFlying()) {
             creature.setVelocityY(creature.getVelocityY() +
                     GRAVITY * elapsedTime);
         }
@@ -276,7 +1274,7 @@ public class GameEngine extends GameCore
         float oldX = creature.getX();
         float newX = oldX + dx * elapsedTime;
         Point tile =
-                getTileCollision(creature, newX, creature.getY());
+                getTileCollision(creature, newX, creature.getY(), tileCache);
         if (tile == null) {
             creature.setX(newX);
         } else {
@@ -299,7 +1297,7 @@ public class GameEngine extends GameCore
         float dy = creature.getVelocityY();
         float oldY = creature.getY();
         float newY = oldY + dy * elapsedTime;
-        tile = getTileCollision(creature, creature.getX(), newY);
+        tile = getTileCollision(creature, creature.getX(), newY, tileCache);
         if (tile == null) {
             creature.setY(newY);
         } else {
@@ -338,23 +1336,30 @@ public class GameEngine extends GameCore
         // check for player collision with other sprites
         Sprite collisionSprite = getSpriteCollision(player);
         if (collisionSprite instanceof PowerUp) {
+            recordCollision(player, collisionSprite,
+                    GameEvents.POWER_UP);
             acquirePowerUp((PowerUp)collisionSprite);
         } else if (collisionSprite instanceof Creature) {
             Creature badguy = (Creature)collisionSprite;
             if (canKill) {
                 // kill the badguy and make player bounce
+                recordCollision(player, badguy, GameEvents.STOMP);
                 badguy.setState(Creature.STATE_DYING);
                 player.setY(badguy.getY() - player.getHeight());
                 player.jump(true);
             } else {
                 // player dies!
+                recordCollision(player, badguy, GameEvents.HIT);
                 player.setState(Creature.STATE_DYING);
                 numLives--;
+                recordDeath(player, badguy);
                 if(numLives==0) {
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
+                    if (!isHeadless()) {
+                        try {
+                            Thread.sleep(3000);
+                        } catch (InterruptedException ex) {
+                            ex.printStackTrace();
+                        }
                     }
                     stop();
                 }
@@ -385,12 +1390,38 @@ public class GameEngine extends GameCore
             // change the music
             
         } else if (powerUp instanceof PowerUp.Goal) {
-            // advance to next map      
-      
+            // advance to next map. The old map is still being
+            // updated, so it is recycled later.
+            Object event = GameEvents.beginMapTransition(
+                    mapLoader.currentMap);
+            retiredMaps.add(map);
             map = mapLoader.loadNextMap();
+            storePositions();
+            GameEvents.commitMapTransition(event, mapLoader.currentMap);
             
         }
     }
     
+    
+    /**
+     * Records a Flight Recorder event for a collision of the
+     * player, if they are being recorded.
+     */
+    private void recordCollision(Player player, Sprite sprite,
+            String result) {
+        GameEvents.collision(sprite.getClass(), result, player.getX(),
+                player.getY());
+    }
+    
+    
+    /**
+     * Records a Flight Recorder event for the death of the
+     * player, if they are being recorded.
+     */
+    private void recordDeath(Player player, Creature badguy) {
+        GameEvents.playerDeath(mapLoader.currentMap, badguy.getClass(),
+                player.getX(), player.getY(), numLives);
+    }
+    
       
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+package com.TETOSOFT.tilegame;
+
+import java.awt.*;
+import java.util.ArrayList;
+
+/**
+    The Hud class draws the status line: a few text fields, each
+    a label optionally followed by a number. A number can be shown
+    with a fixed number of decimals, like 1234 with three decimals
+    shown as 1.234. Each field is kept
+    rendered in its own image, so drawing the Hud is one image
+    copy per field instead of drawing text every frame.
+
+    <p>A field's image is only rendered again when its number
+    changes, and then without drawing any text: the label and
+    each digit are rendered once into their own images, and the
+    field is put together from those.
+
+    <p>The images are made with the font and text antialiasing
+    of the Graphics the Hud is drawn to, and are made again if
+    those change.
+*/
+class Hud {
+
+    // the characters a number is made of
+    private static final String NUMBER_CHARS = "0123456789-.";
+
+    // the most characters in an int, including the sign and a
+    // decimal point
+    private static final int MAX_NUMBER_CHARS = 12;
+
+    private ArrayList<Field> fields = new ArrayList<Field>();
+    private ArrayList<GlyphSet> glyphSets = new ArrayList<GlyphSet>();
+
+    private GraphicsConfiguration gc;
+    private Font font;
+    private Object textAntialiasing;
+    private FontMetrics metrics;
+
+    private char[] numberChars = new char[MAX_NUMBER_CHARS];
+
+    /**
+        Adds a text field with the baseline of its text starting
+        at (x, y), and returns its index.
+    */
+    public int addLabel(String label, Color color, int x, int y) {
+        fields.add(new Field(label, color, x, y, false));
+        return fields.size() - 1;
+    }
+
+
+    /**
+        Adds a text field showing a label followed by a number,
+        with the baseline of its text starting at (x, y), and
+        returns its index. The number starts at 0.
+    */
+    public int addNumber(String label, Color color, int x, int y) {
+        return addNumber(label, color, x, y, 0);
+    }
+
+
+    /**
+        Adds a text field showing a label followed by a number
+        with the specified number of decimals, with the baseline of
+        its text starting at (x, y), and returns its index. The
+        number starts at 0.
+    */
+    public int addNumber(String label, Color color, int x, int y,
+        int decimals)
+    {
+        Field field = new Field(label, color, x, y, true);
+        field.decimals = decimals;
+        fields.add(field);
+        return fields.size() - 1;
+    }
+
+
+    /**
+        Sets the number shown by a field. A field with decimals
+        shows it divided by 10 to the power of the decimals.
+    */
+    public void setValue(int index, int value) {
+        Field field = fields.get(index);
+        if (field.value != value) {
+            field.value = value;
+            field.dirty = true;
+        }
+    }
+
+
+    /**
+        Draws all the fields.
+    */
+    public void draw(Graphics2D g) {
+        if (g.getDeviceConfiguration() != gc ||
+            g.getFont() != font ||
+            g.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING) !=
+                textAntialiasing)
+        {
+            // images made for another device or font can't be used
+            flush();
+            gc = g.getDeviceConfiguration();
+            font = g.getFont();
+            textAntialiasing = g.getRenderingHint(
+                RenderingHints.KEY_TEXT_ANTIALIASING);
+            metrics = g.getFontMetrics(font);
+        }
+
+        int ascent = metrics.getAscent();
+        for (int i=0; i<fields.size(); i++) {
+            Field field = fields.get(i);
+            if (field.image == null) {
+                createFieldImage(field);
+            }
+            if (field.dirty) {
+                renderField(field);
+            }
+            g.drawImage(field.image, field.x, field.y - ascent, null);
+        }
+    }
+
+
+    /**
+        Releases all the images. They are made again the next
+        time the Hud is drawn.
+    */
+    public void flush() {
+        for (int i=0; i<fields.size(); i++) {
+            Field field = fields.get(i);
+            if (field.graphics != null) {
+                field.graphics.dispose();
+                field.graphics = null;
+            }
+            if (field.image != null) {
+                field.image.flush();
+                field.image = null;
+            }
+            field.labelImage = null;
+            field.glyphs = null;
+        }
+        for (int i=0; i<glyphSets.size(); i++) {
+            Image[] glyphs = glyphSets.get(i).images;
+            for (int j=0; j<glyphs.length; j++) {
+                glyphs[j].flush();
+            }
+        }
+        glyphSets.clear();
+    }
+
+
+    private void createFieldImage(Field field) {
+        field.labelImage = renderText(field.label, field.color);
+        int width = metrics.stringWidth(field.label);
+        if (field.hasValue) {
+            field.glyphs = getGlyphs(field.color);
+            width += MAX_NUMBER_CHARS * field.glyphs.maxWidth;
+        }
+        field.image = gc.createCompatibleImage(Math.max(1, width),
+            getTextHeight(), Transparency.TRANSLUCENT);
+
+        // kept for the life of the image, so rendering the field
+        // again doesn't create a Graphics every time
+        field.graphics = (Graphics2D)field.image.getGraphics();
+        field.dirty = true;
+    }
+
+
+    /**
+        Puts a field's image together from its label image and
+        the images of the digits of its number.
+    */
+    private void renderField(Field field) {
+        Graphics2D g = field.graphics;
+
+        // clear to transparent
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, field.image.getWidth(null),
+            field.image.getHeight(null));
+        g.setComposite(AlphaComposite.SrcOver);
+
+        g.drawImage(field.labelImage, 0, 0, null);
+        if (field.hasValue) {
+            int x = metrics.stringWidth(field.label);
+            int length = getChars(field.value, field.decimals,
+                numberChars);
+            for (int i=0; i<length; i++) {
+                int glyph = NUMBER_CHARS.indexOf(numberChars[i]);
+                g.drawImage(field.glyphs.images[glyph], x, 0, null);
+                x += field.glyphs.widths[glyph];
+            }
+        }
+        field.dirty = false;
+    }
+
+
+    /**
+        Writes the digits of a number, with a minus sign if it is
+        negative and a decimal point before the last decimals
+        digits, and returns how many characters were written.
+    */
+    private static int getChars(int value, int decimals,
+        char[] chars)
+    {
+        int length = 0;
+        if (value < 0) {
+            chars[length++] = '-';
+        }
+
+        // write the digits backwards, then reverse them. There is
+        // always a digit before the decimal point.
+        int start = length;
+        do {
+            if (decimals > 0 && length - start == decimals) {
+                chars[length++] = '.';
+            }
+            chars[length++] = (char)('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0 || length - start <= decimals);
+        for (int i=start, j=length-1; i<j; i++, j--) {
+            char c = chars[i];
+            chars[i] = chars[j];
+            chars[j] = c;
+        }
+        return length;
+    }
+
+
+    /**
+        Gets the images of the characters of a number in the
+        specified color, rendering them the first time.
+    */
+    private GlyphSet getGlyphs(Color color) {
+        for (int i=0; i<glyphSets.size(); i++) {
+            GlyphSet glyphs = glyphSets.get(i);
+            if (glyphs.color.equals(color)) {
+                return glyphs;
+            }
+        }
+
+        GlyphSet glyphs = new GlyphSet();
+        glyphs.color = color;
+        glyphs.images = new Image[NUMBER_CHARS.length()];
+        glyphs.widths = new int[NUMBER_CHARS.length()];
+        for (int i=0; i<NUMBER_CHARS.length(); i++) {
+            glyphs.images[i] = renderText(
+                NUMBER_CHARS.substring(i, i + 1), color);
+            glyphs.widths[i] = metrics.charWidth(NUMBER_CHARS.charAt(i));
+            glyphs.maxWidth = Math.max(glyphs.maxWidth, glyphs.widths[i]);
+        }
+        glyphSets.add(glyphs);
+        return glyphs;
+    }
+
+
+    /**
+        Renders text into a new image just big enough for it,
+        with the top of the image at the font's ascent above the
+        baseline.
+    */
+    private Image renderText(String text, Color color) {
+        Image image = gc.createCompatibleImage(
+            Math.max(1, metrics.stringWidth(text)), getTextHeight(),
+            Transparency.TRANSLUCENT);
+        Graphics2D g = (Graphics2D)image.getGraphics();
+        g.setFont(font);
+        g.setColor(color);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+            textAntialiasing);
+        g.drawString(text, 0, metrics.getAscent());
+        g.dispose();
+        return image;
+    }
+
+
+    private int getTextHeight() {
+        return Math.max(1, metrics.getAscent() + metrics.getDescent());
+    }
+
+
+    private static class Field {
+        String label;
+        Color color;
+        int x;
+        int y;
+        boolean hasValue;
+        int value;
+        int decimals;
+        boolean dirty;
+        Image labelImage;
+        GlyphSet glyphs;
+        Image image;
+        Graphics2D graphics;
+
+        Field(String label, Color color, int x, int y,
+            boolean hasValue)
+        {
+            this.label = label;
+            this.color = color;
+            this.x = x;
+            this.y = y;
+            this.hasValue = hasValue;
+        }
+    }
+
+
+    private static class GlyphSet {
+        Color color;
+        Image[] images;
+        int[] widths;
+        int maxWidth;
+    }
+}
@@ -0,0 +1,73 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+    The MapCompiler tool compiles text maps into binary maps,
+    which the MapLoader loads without parsing. Each map is written
+    next to the text map with the ".map" extension. Arguments are
+    text map files, or directories in which all ".txt" files are
+    compiled.
+    <pre>
+    java com.TETOSOFT.tilegame.MapCompiler maps
+    </pre>
+*/
+public class MapCompiler {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(
+                "Usage: MapCompiler <map.txt | directory>...");
+            System.exit(1);
+        }
+
+        boolean failed = false;
+        for (int i=0; i<args.length; i++) {
+            File file = new File(args[i]);
+            File[] files;
+            if (file.isDirectory()) {
+                files = file.listFiles();
+                Arrays.sort(files);
+            }
+            else {
+                files = new File[] { file };
+            }
+            for (int j=0; j<files.length; j++) {
+                if (!files[j].getName().endsWith(".txt")) {
+                    continue;
+                }
+                try {
+                    compile(files[j]);
+                }
+                catch (IOException ex) {
+                    System.err.println(files[j] + ": " + ex.getMessage());
+                    failed = true;
+                }
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+
+    /**
+        Compiles a text map into a binary map next to it, and
+        returns the binary map file.
+    */
+    public static File compile(File textFile) throws IOException {
+        String name = textFile.getName();
+        File binaryFile = new File(textFile.getParentFile(),
+            name.substring(0, name.length() - ".txt".length()) +
+            MapTemplate.BINARY_EXTENSION);
+
+        MapTemplate template = MapTemplate.readText(textFile.getPath());
+        template.writeBinary(binaryFile.getPath());
+        System.out.println(textFile + " -> " + binaryFile + " (" +
+            template.getWidth() + "x" + template.getHeight() + ", " +
+            template.getSpawnCount() + " sprites)");
+        return binaryFile;
+    }
+}
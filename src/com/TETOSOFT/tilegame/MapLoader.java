@@ -1,103 +1,145 @@
 package com.TETOSOFT.tilegame;
 
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.io.*;
 import java.util.ArrayList;
-import javax.swing.ImageIcon;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.TETOSOFT.events.GameEvents;
 import com.TETOSOFT.graphics.*;
 import com.TETOSOFT.tilegame.sprites.*;
 
 
 /**
     The ResourceManager class loads and manages tile Images and
-    "host" Sprites used in the game. Game Sprites are cloned from
-    "host" Sprites.
+    the Sprites used in the game. Game Sprites come from a
+    SpritePool for each kind of Sprite, and go back to it when
+    their map is recycled with recycleMap().
+
+    <p>While a map is played, the next map is loaded in the
+    background, so loadNextMap() usually returns a map that is
+    already prepared.
 */
 public class MapLoader 
 {
-    private ArrayList tiles;
+    // all the images used by the sprites, and the background
+    private static final String[] SPRITE_IMAGES = {
+        "player.png", "fly1.png", "fly2.png", "fly3.png",
+        "grub1.png", "grub2.png", "heart.png",
+        "coin1.png", "coin2.png", "coin3.png", "coin4.png", "coin5.png",
+        "music1.png", "music2.png", "music3.png", "background.jpg",
+    };
+
+    private ArrayList<Image> tiles;
+    private ImageRegion[] tilePalette;
     public int currentMap;
     private GraphicsConfiguration gc;
+    private ImageCache images;
+    private TextureAtlas atlas;
+
+    // pools of the sprites placed in maps, and of the player.
+    // Sprites of finished maps are reused by the next ones.
+    private SpriteRegistry sprites;
+    private SpritePool playerPool;
 
-    // host sprites used for cloning
-    private Sprite playerSprite;
-    private Sprite musicSprite;
-    private Sprite coinSprite;
-    private Sprite goalSprite;
-    private Sprite grubSprite;
-    private Sprite flySprite;
+    // the current map as it was loaded. Restarting the map
+    // copies these instead of reading the file again.
+    private MapTemplate currentTemplate;
+    private String currentFile;
+    private TileMap pristineMap;
+
+    // loads the next map in the background
+    private ExecutorService prefetchExecutor;
+    private Future<PreparedMap> prefetch;
 
     /**
         Creates a new ResourceManager with the specified
-        GraphicsConfiguration.
+        GraphicsConfiguration. If the GraphicsConfiguration is
+        null, the loader is headless: images are not decoded, and
+        PlaceholderImages with the size of each image are used
+        instead, which is all collisions need.
     */
     public MapLoader(GraphicsConfiguration gc) 
     {
         this.gc = gc;
+
+        // start decoding all the images at once. Loading the
+        // sprites below waits for each image as it's needed.
+        images = new ImageCache(gc, new File("images"));
+        images.preload(getTileImageNames());
+        images.preload(SPRITE_IMAGES);
+
+        // the tiles and sprite frames are packed into a few atlas
+        // pages, so drawing a frame doesn't switch source images
+        if (gc != null) {
+            atlas = new TextureAtlas(gc);
+        }
+
+        sprites = new SpriteRegistry();
         loadTileImages();
         loadCreatureSprites();
         loadPowerUpSprites();
+
+        if (atlas != null) {
+            atlas.pack();
+        }
     }
 
 
     /**
-        Gets an image from the images/ directory.
+        Gets an image from the images/ directory. Each image is
+        only loaded once.
     */
     public Image loadImage(String name) 
     {
-        String filename = "images/" + name;
-        return new ImageIcon(filename).getImage();
-    }
-
-
-    public Image getMirrorImage(Image image) 
-    {
-        return getScaledImage(image, -1, 1);
+        return images.get(name);
     }
 
 
-    public Image getFlippedImage(Image image) 
+    /**
+        Gets the region an image is drawn from. The image is added
+        to the texture atlas, unless the loader is headless.
+    */
+    private ImageRegion getRegion(Image image)
     {
-        return getScaledImage(image, 1, -1);
+        if (atlas == null) {
+            return new ImageRegion(image);
+        }
+        return atlas.add(image);
     }
 
 
-    private Image getScaledImage(Image image, float x, float y) 
+    /**
+        Gets a mirrored and/or flipped copy of a region, which is
+        only drawn, into the texture atlas, the first time it's used.
+        A headless loader just returns the region, since only the
+        size matters.
+    */
+    private ImageRegion getTransformedRegion(ImageRegion region,
+        boolean mirror, boolean flip)
     {
-
-        // set up the transform
-        AffineTransform transform = new AffineTransform();
-        transform.scale(x, y);
-        transform.translate(
-            (x-1) * image.getWidth(null) / 2,
-            (y-1) * image.getHeight(null) / 2);
-
-        // create a transparent (not translucent) image
-        Image newImage = gc.createCompatibleImage(
-            image.getWidth(null),
-            image.getHeight(null),
-            Transparency.BITMASK);
-
-        // draw the transformed image
-        Graphics2D g = (Graphics2D)newImage.getGraphics();
-        g.drawImage(image, transform, null);
-        g.dispose();
-
-        return newImage;
+        if (atlas == null) {
+            return region;
+        }
+        return atlas.addTransformed(region, mirror, flip);
     }
 
 
     public TileMap loadNextMap() 
     {
-        TileMap map = null;
+        TileMap map = takePrefetchedMap();
         while (map == null) 
         {
             currentMap++;
             try {
-                map = loadMap(
-                    "maps/map" + currentMap + ".txt");
+                PreparedMap prepared = prepareMap(currentMap);
+                setCurrentMap(prepared);
+                map = prepared.map;
             }
             catch (IOException ex) 
             {
@@ -111,98 +153,254 @@ public class MapLoader
             }
         }
 
+        prefetchNextMap();
         return map;
     }
 
 
-    public TileMap reloadMap() 
+    /**
+        Starts loading the map after the current one in the
+        background.
+    */
+    private void prefetchNextMap()
+    {
+        // the same order as loadNextMap(): after the last map,
+        // start over with the first one
+        int mapNumber = currentMap + 1;
+        if (!new File(getMapFile(mapNumber)).exists()) {
+            mapNumber = 1;
+        }
+        if (!new File(getMapFile(mapNumber)).exists()) {
+            return;
+        }
+
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Map prefetch");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        }
+
+        final int number = mapNumber;
+        prefetch = prefetchExecutor.submit(new Callable<PreparedMap>() {
+            public PreparedMap call() throws IOException {
+                return prepareMap(number);
+            }
+        });
+    }
+
+
+    /**
+        Gets the map loaded in the background and makes it the
+        current map, waiting for it if it isn't ready yet. Returns
+        null if no map is being loaded or it failed to load, in
+        which case it is loaded the normal way. The background load
+        is never abandoned, since the Sprites it takes from the
+        pools would be lost and the map loaded twice.
+    */
+    private TileMap takePrefetchedMap()
     {
+        if (prefetch == null) {
+            return null;
+        }
+        Future<PreparedMap> future = prefetch;
+        prefetch = null;
+
+        boolean interrupted = false;
         try {
-            return loadMap(
-                "maps/map" + currentMap + ".txt");
+            while (true) {
+                try {
+                    PreparedMap prepared = future.get();
+                    setCurrentMap(prepared);
+                    return prepared.map;
+                }
+                catch (InterruptedException ex) {
+                    // keep waiting, and interrupt again after
+                    interrupted = true;
+                }
+            }
         }
-        catch (IOException ex) {
+        catch (ExecutionException ex) {
             ex.printStackTrace();
             return null;
         }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 
-    private TileMap loadMap(String filename)
+    /**
+        Reads a map and creates a playable TileMap from it. Can be
+        called from any thread.
+    */
+    private PreparedMap prepareMap(int mapNumber)
         throws IOException
     {
-        ArrayList lines = new ArrayList();
-        int width = 0;
-        int height = 0;
-
-        // read every line in the text file into the list
-        BufferedReader reader = new BufferedReader(
-            new FileReader(filename));
-        while (true) {
-            String line = reader.readLine();
-            // no more lines to read
-            if (line == null) {
-                reader.close();
-                break;
-            }
+        Object event = GameEvents.beginMapLoad();
+        PreparedMap prepared = new PreparedMap();
+        prepared.mapNumber = mapNumber;
+        prepared.file = getMapFile(mapNumber);
+        prepared.template = MapTemplate.read(prepared.file);
+        prepared.pristineMap = createTiles(prepared.template);
+        prepared.map = createMap(prepared.template,
+            prepared.pristineMap);
+        commitLoadEvent(event, prepared.file, prepared.map, false);
+        return prepared;
+    }
 
-            // add every line except for comments
-            if (!line.startsWith("#")) {
-                lines.add(line);
-                width = Math.max(width, line.length());
-            }
+
+    private void setCurrentMap(PreparedMap prepared)
+    {
+        currentMap = prepared.mapNumber;
+        currentFile = prepared.file;
+        currentTemplate = prepared.template;
+        pristineMap = prepared.pristineMap;
+    }
+
+
+    /**
+        Starts the current map over. The tiles are copied from the
+        pristine map kept when the map was loaded, and the Sprites
+        are created from its template, so no file is read.
+    */
+    public TileMap reloadMap() 
+    {
+        if (currentTemplate == null) {
+            return null;
         }
+        Object event = GameEvents.beginMapLoad();
+        TileMap map = createMap(currentTemplate, pristineMap);
+        commitLoadEvent(event, currentFile, map, true);
+        return map;
+    }
 
-        // parse the lines to create a TileEngine
-        height = lines.size();
-        TileMap newMap = new TileMap(width, height);
-        for (int y=0; y<height; y++) {
-            String line = (String)lines.get(y);
-            for (int x=0; x<line.length(); x++) {
-                char ch = line.charAt(x);
-
-                // check if the char represents tile A, B, C etc.
-                int tile = ch - 'A';
-                if (tile >= 0 && tile < tiles.size()) {
-                    newMap.setTile(x, y, (Image)tiles.get(tile));
-                }
 
-                // check if the char represents a sprite
-                else if (ch == 'o') {
-                    addSprite(newMap, coinSprite, x, y);
-                }
-                else if (ch == '!') {
-                    addSprite(newMap, musicSprite, x, y);
-                }
-                else if (ch == '*') {
-                    addSprite(newMap, goalSprite, x, y);
-                }
-                else if (ch == '1') {
-                    addSprite(newMap, grubSprite, x, y);
-                }
-                else if (ch == '2') {
-                    addSprite(newMap, flySprite, x, y);
-                }
-            }
+    /**
+        Commits the Flight Recorder event for loading a map, if
+        one was started.
+    */
+    private void commitLoadEvent(Object event, String file,
+        TileMap map, boolean reload)
+    {
+        if (event == null) {
+            return;
+        }
+        GameEvents.commitMapLoad(event, file, new File(file).length(),
+            map.getSpriteCount(), reload);
+    }
+
+
+    /**
+        Gets the file of the specified map number. The compiled
+        binary map is used if there is one, unless the text map
+        was changed after it was compiled.
+    */
+    private String getMapFile(int mapNumber)
+    {
+        String textFile = "maps/map" + mapNumber + ".txt";
+        String binaryFile = "maps/map" + mapNumber +
+            MapTemplate.BINARY_EXTENSION;
+        File binary = new File(binaryFile);
+        if (binary.exists() &&
+            binary.lastModified() >= new File(textFile).lastModified())
+        {
+            return binaryFile;
         }
+        return textFile;
+    }
+
+
+    /**
+        Loads a map from a text file, or from a binary file
+        compiled with MapCompiler if the name ends with ".map".
+        Doesn't change the current map number.
+    */
+    public TileMap loadMap(String filename)
+        throws IOException
+    {
+        Object event = GameEvents.beginMapLoad();
+        MapTemplate template = MapTemplate.read(filename);
+        TileMap map = createMap(template, createTiles(template));
+        commitLoadEvent(event, filename, map, false);
+        return map;
+    }
+
+
+    /**
+        Creates a TileMap with the tiles of a MapTemplate and no
+        Sprites.
+    */
+    private TileMap createTiles(MapTemplate template)
+    {
+        TileMap tileMap = new TileMap(template.getWidth(),
+            template.getHeight(), tilePalette);
+        tileMap.setTiles(template);
+        return tileMap;
+    }
+
+
+    /**
+        Creates a playable TileMap with a copy of the tiles of a
+        pristine map, and Sprites from the pools at the spawns of
+        the template.
+    */
+    private TileMap createMap(MapTemplate template, TileMap pristine)
+    {
+        TileMap newMap = new TileMap(pristine);
+
+        Sprite[] spawned = new Sprite[template.getSpawnCount()];
+        for (int i=0; i<spawned.length; i++) {
+            spawned[i] = sprites.obtain(template.getSpawnType(i));
+            addSprite(newMap, spawned[i],
+                template.getSpawnX(i), template.getSpawnY(i));
+        }
+        newMap.setSpawnedSprites(spawned);
 
         // add the player to the map
-        Sprite player = (Sprite)playerSprite.clone();
+        Sprite player = playerPool.obtain();
         player.setX(TileMapDrawer.tilesToPixels(3));
-        player.setY(lines.size());
+        player.setY(template.getHeight());
         newMap.setPlayer(player);
 
         return newMap;
     }
 
 
-    private void addSprite(TileMap map,
-        Sprite hostSprite, int tileX, int tileY)
+    /**
+        Returns the Sprites of a map created by this loader to
+        their pools, so the next maps can reuse them. The map and
+        its Sprites must not be used afterwards.
+    */
+    public void recycleMap(TileMap map)
     {
-        if (hostSprite != null) {
-            // clone the sprite from the "host"
-            Sprite sprite = (Sprite)hostSprite.clone();
+        Sprite[] spawned = map.getSpawnedSprites();
+        if (spawned == null) {
+            return;
+        }
+        map.setSpawnedSprites(null);
+        for (int i=0; i<spawned.length; i++) {
+            if (spawned[i] != null) {
+                sprites.recycle(spawned[i]);
+            }
+        }
+        if (map.getPlayer() != null) {
+            sprites.recycle(map.getPlayer());
+        }
+    }
 
+
+    private void addSprite(TileMap map,
+        Sprite sprite, int tileX, int tileY)
+    {
+        if (sprite != null) {
             // center the sprite
             sprite.setX(
                 TileMapDrawer.tilesToPixels(tileX) +
@@ -220,16 +418,46 @@ public class MapLoader
     }
 
 
+    /**
+        A map read from its file and ready to be played.
+    */
+    private static class PreparedMap {
+        int mapNumber;
+        String file;
+        MapTemplate template;
+        TileMap pristineMap;
+        TileMap map;
+    }
+
+
     // -----------------------------------------------------------
     // code for loading sprites and images
     // -----------------------------------------------------------
 
 
     public void loadTileImages()
+    {
+        String[] names = getTileImageNames();
+        tiles = new ArrayList<Image>();
+        for (int i=0; i<names.length; i++) {
+            tiles.add(loadImage(names[i]));
+        }
+
+        // tile ID 0 is the empty tile, 'A' is ID 1 and so on
+        tilePalette = new ImageRegion[tiles.size() + 1];
+        for (int i=0; i<tiles.size(); i++) {
+            tilePalette[i + 1] = getRegion(tiles.get(i));
+        }
+    }
+
+    /**
+        Gets the names of the tile images.
+    */
+    private String[] getTileImageNames()
     {
         // keep looking for tile A,B,C, etc. this makes it
         // easy to drop new tiles in the images/ directory
-        tiles = new ArrayList();
+        ArrayList<String> names = new ArrayList<String>();
         char ch = 'A';
         
         while (true) 
@@ -239,9 +467,10 @@ public class MapLoader
             if (!file.exists()) 
                 break;
             
-            tiles.add(loadImage(name));
+            names.add(name);
             ch++;
         }
+        return names.toArray(new String[names.size()]);
     }
 
 //////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -249,10 +478,10 @@ public class MapLoader
     public void loadCreatureSprites() 
     {
 
-        Image[][] images = new Image[4][];
+        ImageRegion[][] images = new ImageRegion[4][];
 
         // load left-facing images
-        images[0] = new Image[] {
+        Image[] leftImages = {
             loadImage("player.png"),         
             loadImage("fly1.png"),
             loadImage("fly2.png"),
@@ -261,18 +490,22 @@ public class MapLoader
             loadImage("grub2.png"),
         };
 
-        images[1] = new Image[images[0].length];
-        images[2] = new Image[images[0].length];
-        images[3] = new Image[images[0].length];
+        images[0] = new ImageRegion[leftImages.length];
+        images[1] = new ImageRegion[leftImages.length];
+        images[2] = new ImageRegion[leftImages.length];
+        images[3] = new ImageRegion[leftImages.length];
         
-        for (int i=0; i<images[0].length; i++) 
+        // the other images are only created when they're first
+        // drawn
+        for (int i=0; i<leftImages.length; i++) 
         {
+            images[0][i] = getRegion(leftImages[i]);
             // right-facing images
-            images[1][i] = getMirrorImage(images[0][i]);
+            images[1][i] = getTransformedRegion(images[0][i], true, false);
             // left-facing "dead" images
-            images[2][i] = getFlippedImage(images[0][i]);
+            images[2][i] = getTransformedRegion(images[0][i], false, true);
             // right-facing "dead" images
-            images[3][i] = getFlippedImage(images[1][i]);
+            images[3][i] = getTransformedRegion(images[0][i], true, true);
         }
 
         // create creature animations
@@ -283,18 +516,43 @@ public class MapLoader
         for (int i=0; i<4; i++) 
         {
             playerAnim[i] = createPlayerAnim (images[i][0]);
-            flyAnim[i] = createFlyAnim (images[i][1], images[i][1], images[i][3]);
+            flyAnim[i] = createFlyAnim (images[i][1], images[i][2], images[i][3]);
             grubAnim[i] = createGrubAnim (images[i][4], images[i][5]);
         }
 
-        // create creature sprites
-        playerSprite = new Player (playerAnim[0], playerAnim[1],playerAnim[2], playerAnim[3]);
-        flySprite = new Fly (flyAnim[0], flyAnim[1],flyAnim[2], flyAnim[3]);
-        grubSprite = new Grub (grubAnim[0], grubAnim[1],grubAnim[2], grubAnim[3]);
+        // register the creature factories. Each creature gets its
+        // own copies of the Animations.
+        final Animation[] playerAnims = playerAnim;
+        final Animation[] flyAnims = flyAnim;
+        final Animation[] grubAnims = grubAnim;
+        playerPool = sprites.register(Player.class, new SpritePool.Factory() {
+            public Sprite create() {
+                return new Player (copy(playerAnims[0]), copy(playerAnims[1]),
+                    copy(playerAnims[2]), copy(playerAnims[3]));
+            }
+        });
+        sprites.register('2', Fly.class, new SpritePool.Factory() {
+            public Sprite create() {
+                return new Fly (copy(flyAnims[0]), copy(flyAnims[1]),
+                    copy(flyAnims[2]), copy(flyAnims[3]));
+            }
+        });
+        sprites.register('1', Grub.class, new SpritePool.Factory() {
+            public Sprite create() {
+                return new Grub (copy(grubAnims[0]), copy(grubAnims[1]),
+                    copy(grubAnims[2]), copy(grubAnims[3]));
+            }
+        });
     }
 
 
-    private Animation createPlayerAnim(Image player)
+    private static Animation copy(Animation anim)
+    {
+        return (Animation)anim.clone();
+    }
+
+
+    private Animation createPlayerAnim(ImageRegion player)
     {
         Animation anim = new Animation();
         anim.addFrame(player, 250);
@@ -303,7 +561,8 @@ public class MapLoader
     }
 
 
-    private Animation createFlyAnim(Image img1, Image img2, Image img3)
+    private Animation createFlyAnim(ImageRegion img1, ImageRegion img2,
+        ImageRegion img3)
     {
         Animation anim = new Animation();
         anim.addFrame(img1, 50);
@@ -314,7 +573,7 @@ public class MapLoader
     }
 
 
-    private Animation createGrubAnim(Image img1, Image img2)
+    private Animation createGrubAnim(ImageRegion img1, ImageRegion img2)
     {
         Animation anim = new Animation();
         anim.addFrame(img1, 250);
@@ -326,27 +585,40 @@ public class MapLoader
     private void loadPowerUpSprites() 
     {
         // create "goal" sprite
-        Animation anim = new Animation();
-        anim.addFrame(loadImage("heart.png"), 150);
-        goalSprite = new PowerUp.Goal(anim);
+        final Animation goalAnim = new Animation();
+        goalAnim.addFrame(getRegion(loadImage("heart.png")), 150);
+        sprites.register('*', PowerUp.Goal.class, new SpritePool.Factory() {
+            public Sprite create() {
+                return new PowerUp.Goal(copy(goalAnim));
+            }
+        });
 
         // create "star" sprite
-        anim = new Animation();
-        anim.addFrame(loadImage("coin1.png"),250 ) ;  
-        anim.addFrame(loadImage("coin2.png"),250);
-        anim.addFrame(loadImage("coin3.png"),250);
-        anim.addFrame(loadImage("coin4.png"),250);
-        anim.addFrame(loadImage("coin5.png"),250);
-        coinSprite = new PowerUp.Star(anim);
+        Animation anim = new Animation();
+        anim.addFrame(getRegion(loadImage("coin1.png")), 250);  
+        anim.addFrame(getRegion(loadImage("coin2.png")), 250);
+        anim.addFrame(getRegion(loadImage("coin3.png")), 250);
+        anim.addFrame(getRegion(loadImage("coin4.png")), 250);
+        anim.addFrame(getRegion(loadImage("coin5.png")), 250);
+        final Animation coinAnim = anim;
+        sprites.register('o', PowerUp.Star.class, new SpritePool.Factory() {
+            public Sprite create() {
+                return new PowerUp.Star(copy(coinAnim));
+            }
+        });
 
         // create "music" sprite
         anim = new Animation();
-        anim.addFrame(loadImage("music1.png"), 150);
-        anim.addFrame(loadImage("music2.png"), 150);
-        anim.addFrame(loadImage("music3.png"), 150);
-        anim.addFrame(loadImage("music2.png"), 150);
-        musicSprite = new PowerUp.Music(anim);
-        musicSprite=new PowerUp.Music(anim);
+        anim.addFrame(getRegion(loadImage("music1.png")), 150);
+        anim.addFrame(getRegion(loadImage("music2.png")), 150);
+        anim.addFrame(getRegion(loadImage("music3.png")), 150);
+        anim.addFrame(getRegion(loadImage("music2.png")), 150);
+        final Animation musicAnim = anim;
+        sprites.register('!', PowerUp.Music.class, new SpritePool.Factory() {
+            public Sprite create() {
+                return new PowerUp.Music(copy(musicAnim));
+            }
+        });
     }
 
 }
@@ -0,0 +1,354 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+    The MapTemplate class holds the contents of a map file: its
+    tiles and the locations where Sprites start. It doesn't
+    depend on any images, and is never changed after it is read.
+    The MapLoader creates playable TileMaps from it.
+
+    <p>Templates are read from text maps or from compiled binary
+    maps. In a text map, the letters A to Z are tiles, and the
+    characters 'o', '!', '*', '1' and '2' are a coin, a music
+    note, the goal, a grub and a fly. Lines starting with '#' are
+    comments.
+
+    <p>A binary map (see MapCompiler) is read by mapping the file
+    into memory, and its tiles are not copied until a TileMap is
+    created from it. It is laid out as follows, big-endian:
+    <pre>
+    int    magic ('SMAP')
+    short  version
+    short  flags (0)
+    int    width, in tiles
+    int    height, in tiles
+    int    number of spawns
+    byte[] tile IDs, row by row (width * height)
+    spawns, each: byte type char, int tile x, int tile y
+    </pre>
+*/
+public class MapTemplate {
+
+    /**
+        The file name extension of binary maps.
+    */
+    public static final String BINARY_EXTENSION = ".map";
+
+    private static final int MAGIC = 0x534D4150;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int SPAWN_SIZE = 9;
+
+    private static final int MAX_TILE_ID = 'Z' - 'A' + 1;
+    private static final String SPAWN_CHARS = "o!*12";
+
+    private int width;
+    private int height;
+    private ByteBuffer tiles;
+    private byte[] spawnTypes;
+    private int[] spawnX;
+    private int[] spawnY;
+    private long fileSize;
+
+
+    private MapTemplate(int width, int height, ByteBuffer tiles,
+        byte[] spawnTypes, int[] spawnX, int[] spawnY, long fileSize)
+    {
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles.asReadOnlyBuffer();
+        this.spawnTypes = spawnTypes;
+        this.spawnX = spawnX;
+        this.spawnY = spawnY;
+        this.fileSize = fileSize;
+    }
+
+
+    /**
+        Reads a map from a text or binary file, depending on the
+        file name extension.
+    */
+    public static MapTemplate read(String filename)
+        throws IOException
+    {
+        if (filename.endsWith(BINARY_EXTENSION)) {
+            return readBinary(filename);
+        }
+        return readText(filename);
+    }
+
+
+    /**
+        Reads a map from a text file.
+    */
+    public static MapTemplate readText(String filename)
+        throws IOException
+    {
+        ArrayList<String> lines = new ArrayList<String>();
+        int width = 0;
+
+        // read every line in the text file into the list
+        BufferedReader reader = new BufferedReader(
+            new FileReader(filename));
+        try {
+            while (true) {
+                String line = reader.readLine();
+                // no more lines to read
+                if (line == null) {
+                    break;
+                }
+
+                // add every line except for comments
+                if (!line.startsWith("#")) {
+                    lines.add(line);
+                    width = Math.max(width, line.length());
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        // parse the lines into tile IDs and spawns
+        int height = lines.size();
+        byte[] tiles = new byte[width * height];
+        SpawnList spawns = new SpawnList();
+        for (int y=0; y<height; y++) {
+            String line = lines.get(y);
+            for (int x=0; x<line.length(); x++) {
+                char ch = line.charAt(x);
+
+                // check if the char represents tile A, B, C etc.
+                int tile = ch - 'A';
+                if (tile >= 0 && tile < MAX_TILE_ID) {
+                    tiles[y * width + x] = (byte)(tile + 1);
+                }
+
+                // check if the char represents a sprite
+                else if (SPAWN_CHARS.indexOf(ch) != -1) {
+                    spawns.add(ch, x, y);
+                }
+            }
+        }
+
+        return new MapTemplate(width, height, ByteBuffer.wrap(tiles),
+            spawns.getTypes(), spawns.getX(), spawns.getY(),
+            new File(filename).length());
+    }
+
+
+    /**
+        Reads a map from a binary file by mapping it into memory.
+    */
+    public static MapTemplate readBinary(String filename)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(filename);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(filename + ": not a map file");
+            }
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(filename + ": not a map file");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException(filename +
+                    ": unsupported map version " + version);
+            }
+            buffer.getShort();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int numSpawns = buffer.getInt();
+            long numTiles = (long)width * height;
+            if (width < 0 || height < 0 || numSpawns < 0 ||
+                HEADER_SIZE + numTiles + (long)numSpawns * SPAWN_SIZE
+                != size)
+            {
+                throw new IOException(filename + ": corrupt map file");
+            }
+
+            // the tiles stay in the mapped file
+            buffer.limit(HEADER_SIZE + (int)numTiles);
+            ByteBuffer tiles = buffer.slice();
+
+            buffer.limit((int)size);
+            buffer.position(HEADER_SIZE + (int)numTiles);
+            byte[] spawnTypes = new byte[numSpawns];
+            int[] spawnX = new int[numSpawns];
+            int[] spawnY = new int[numSpawns];
+            for (int i=0; i<numSpawns; i++) {
+                spawnTypes[i] = buffer.get();
+                spawnX[i] = buffer.getInt();
+                spawnY[i] = buffer.getInt();
+            }
+
+            return new MapTemplate(width, height, tiles,
+                spawnTypes, spawnX, spawnY, size);
+        }
+        finally {
+            // the mapping stays valid after the channel is closed
+            in.close();
+        }
+    }
+
+
+    /**
+        Writes this map to a binary file.
+    */
+    public void writeBinary(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(filename)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(spawnTypes.length);
+            ByteBuffer tileData = tiles.duplicate();
+            tileData.rewind();
+            byte[] chunk = new byte[8192];
+            while (tileData.hasRemaining()) {
+                int length = Math.min(chunk.length, tileData.remaining());
+                tileData.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+            for (int i=0; i<spawnTypes.length; i++) {
+                out.writeByte(spawnTypes[i]);
+                out.writeInt(spawnX[i]);
+                out.writeInt(spawnY[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /**
+        Gets the width of this map (number of tiles across).
+    */
+    public int getWidth() {
+        return width;
+    }
+
+
+    /**
+        Gets the height of this map (number of tiles down).
+    */
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+        Copies the tile IDs, row by row, into the specified
+        array, which must hold width * height IDs.
+    */
+    public void copyTiles(byte[] dest) {
+        ByteBuffer tileData = tiles.duplicate();
+        tileData.rewind();
+        tileData.get(dest, 0, width * height);
+    }
+
+
+    /**
+        Gets the number of Sprites that start in this map, not
+        including the player.
+    */
+    public int getSpawnCount() {
+        return spawnTypes.length;
+    }
+
+
+    /**
+        Gets the map character of the specified Sprite spawn,
+        like 'o' for a coin.
+    */
+    public char getSpawnType(int index) {
+        return (char)spawnTypes[index];
+    }
+
+
+    /**
+        Gets the tile x location of the specified Sprite spawn.
+    */
+    public int getSpawnX(int index) {
+        return spawnX[index];
+    }
+
+
+    /**
+        Gets the tile y location of the specified Sprite spawn.
+    */
+    public int getSpawnY(int index) {
+        return spawnY[index];
+    }
+
+
+    /**
+        Gets the size of the file this map was read from, in
+        bytes.
+    */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+
+    /**
+        A growable list of spawns used while parsing.
+    */
+    private static class SpawnList {
+        private byte[] types = new byte[64];
+        private int[] x = new int[64];
+        private int[] y = new int[64];
+        private int size;
+
+        void add(char type, int tileX, int tileY) {
+            if (size == types.length) {
+                byte[] newTypes = new byte[size * 2];
+                int[] newX = new int[size * 2];
+                int[] newY = new int[size * 2];
+                System.arraycopy(types, 0, newTypes, 0, size);
+                System.arraycopy(x, 0, newX, 0, size);
+                System.arraycopy(y, 0, newY, 0, size);
+                types = newTypes;
+                x = newX;
+                y = newY;
+            }
+            types[size] = (byte)type;
+            x[size] = tileX;
+            y[size] = tileY;
+            size++;
+        }
+
+        byte[] getTypes() {
+            byte[] result = new byte[size];
+            System.arraycopy(types, 0, result, 0, size);
+            return result;
+        }
+
+        int[] getX() {
+            int[] result = new int[size];
+            System.arraycopy(x, 0, result, 0, size);
+            return result;
+        }
+
+        int[] getY() {
+            int[] result = new int[size];
+            System.arraycopy(y, 0, result, 0, size);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.TETOSOFT.tilegame;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.TETOSOFT.input.InputReplay;
+
+/**
+    The ReplayDriver class plays a game again from the input
+    recorded with GameEngine's --record option, headless and as
+    fast as possible. Each recorded tick goes through the same
+    input checks and update as when it was recorded. Nothing in
+    an update depends on whether or when frames were drawn, so
+    the game ends in the same state as the recorded game, which
+    makes a replay a reproducible test for performance and
+    correctness.
+    <pre>
+    java com.TETOSOFT.tilegame.ReplayDriver [--parallel] FILE
+    </pre>
+    Must be run from the directory with the images and maps.
+*/
+public class ReplayDriver {
+
+    public static void main(String[] args) throws IOException {
+        String file = null;
+        boolean parallel = false;
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("--parallel")) {
+                parallel = true;
+            }
+            else if (file == null) {
+                file = args[i];
+            }
+            else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+        if (file == null) {
+            System.err.println(
+                "Usage: ReplayDriver [--parallel] FILE");
+            System.exit(1);
+        }
+
+        // keep AWT from looking for a display
+        System.setProperty("java.awt.headless", "true");
+
+        InputReplay replay = new InputReplay(new File(file));
+        try {
+            GameEngine engine = new GameEngine();
+            engine.setHeadless(true);
+            engine.setParallelUpdate(parallel);
+            engine.setInputReplay(replay);
+            engine.init();
+
+            long startTime = System.nanoTime();
+            replay(engine, replay);
+            engine.printSummary(System.nanoTime() - startTime);
+        }
+        finally {
+            replay.close();
+        }
+    }
+
+
+    /**
+        Updates the game once for each recorded tick, until the
+        recording ends or the game stops.
+    */
+    public static void replay(GameEngine engine, InputReplay replay)
+        throws IOException
+    {
+        while (engine.isRunning() && replay.next()) {
+            engine.update(replay.getElapsedTime());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.TETOSOFT.tilegame;
+
+import java.nio.ByteBuffer;
+
+/**
+    The RewindBuffer class keeps the game states of the last
+    ticks, as written by GameEngine.saveState(), so the game can
+    be played backwards a tick at a time.
+
+    <p>Each state is written into its own ByteBuffer, made when
+    the RewindBuffer is made or when a bigger map needs bigger
+    ones, so saving a state every tick doesn't allocate memory.
+    When the buffer is full, the oldest state is written over.
+*/
+class RewindBuffer {
+
+    private final ByteBuffer[] states;
+    private int stateSize;
+
+    // the slot of the newest state, and how many there are
+    private int newest = -1;
+    private int count;
+
+    /**
+        Creates a new RewindBuffer keeping up to capacity states.
+    */
+    public RewindBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "Capacity must be positive: " + capacity);
+        }
+        states = new ByteBuffer[capacity];
+    }
+
+
+    /**
+        Gets the number of states kept.
+    */
+    public int size() {
+        return count;
+    }
+
+
+    /**
+        Removes all the states, like when they are for a map that
+        isn't played any more.
+    */
+    public void clear() {
+        newest = -1;
+        count = 0;
+    }
+
+
+    /**
+        Makes sure each state can be up to size bytes long. If
+        they can't, the ByteBuffers are made again, and all the
+        states are removed.
+    */
+    public void ensureStateSize(int size) {
+        if (size <= stateSize) {
+            return;
+        }
+        clear();
+
+        // round up, so maps a bit bigger don't make them again
+        stateSize = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        for (int i=0; i<states.length; i++) {
+            states[i] = ByteBuffer.allocate(stateSize);
+        }
+    }
+
+
+    /**
+        Makes room for a new newest state and returns the
+        ByteBuffer to write it into, cleared. The oldest state is
+        removed if the buffer is full.
+    */
+    public ByteBuffer push() {
+        if (stateSize == 0) {
+            throw new IllegalStateException("No state size set");
+        }
+        newest = (newest + 1) % states.length;
+        count = Math.min(count + 1, states.length);
+        ByteBuffer state = states[newest];
+        state.clear();
+        return state;
+    }
+
+
+    /**
+        Removes the newest state. Does nothing if there are no
+        states.
+    */
+    public void pop() {
+        if (count == 0) {
+            return;
+        }
+        newest = (newest + states.length - 1) % states.length;
+        count--;
+    }
+
+
+    /**
+        Gets the newest state, ready to be read from the start,
+        or null if there are no states. The state stays in the
+        buffer.
+    */
+    public ByteBuffer peek() {
+        if (count == 0) {
+            return null;
+        }
+        ByteBuffer state = states[newest];
+        state.rewind();
+        return state;
+    }
+}
@@ -0,0 +1,313 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The SpriteGrid class is a uniform grid of cells laid over a
+    TileMap, used to quickly find the Sprites near an area
+    without looking at every Sprite in the map.
+
+    <p>Each Sprite is stored in every cell its bounds overlap.
+    When a Sprite moves, update() moves it to its new cells, which
+    usually costs nothing because most moves stay inside the same
+    cells. Sprites outside the map are kept in the nearest edge
+    cells.
+
+    <p>A cell only has an array of entries while a Sprite is in
+    it. Arrays of empty cells are kept as spares, and enough spares
+    are made when Sprites are added for every Sprite to straddle
+    four cells, so moving Sprites never allocate memory.
+
+    <p>Query results are returned in the order the Sprites were
+    added, so code that picks the first match behaves the same as
+    when walking the map's Sprite list.
+*/
+class SpriteGrid {
+
+    // the size in bits of a cell, in pixels (128 = two tiles)
+    private static final int CELL_SIZE_BITS = 7;
+
+    private static final int INITIAL_CELL_CAPACITY = 4;
+
+    // the most cells a Sprite up to a cell in size can overlap
+    private static final int MAX_CELLS_PER_SPRITE = 4;
+
+    private final int cols;
+    private final int rows;
+    private final Entry[][] cells;
+    private final int[] cellCounts;
+    private final IdentityHashMap<Sprite, Entry> entries;
+
+    private Entry[][] spareCells;
+    private int numSpareCells;
+    private int numCellArrays;
+
+    private Entry[] results;
+    private int numResults;
+    private int queryStamp;
+    private int nextSequence;
+
+    /**
+        Creates a new SpriteGrid covering a map of the specified
+        size in pixels.
+    */
+    public SpriteGrid(int widthInPixels, int heightInPixels) {
+        cols = Math.max(1, (widthInPixels >> CELL_SIZE_BITS) + 1);
+        rows = Math.max(1, (heightInPixels >> CELL_SIZE_BITS) + 1);
+        cells = new Entry[cols * rows][];
+        cellCounts = new int[cols * rows];
+        entries = new IdentityHashMap<Sprite, Entry>();
+        results = new Entry[16];
+        spareCells = new Entry[16][];
+    }
+
+
+    /**
+        Adds a Sprite to the cells its bounds overlap.
+    */
+    public void add(Sprite sprite) {
+        Entry entry = new Entry(sprite, nextSequence++);
+        entries.put(sprite, entry);
+        setBounds(entry, sprite);
+        addToCells(entry);
+
+        // make sure the Sprites can move without allocating
+        while (numCellArrays < entries.size() * MAX_CELLS_PER_SPRITE) {
+            addSpareCell(new Entry[INITIAL_CELL_CAPACITY]);
+            numCellArrays++;
+        }
+        if (spareCells.length < numCellArrays) {
+            // room for all the arrays, in case every cell empties
+            growSpareCells(numCellArrays * 2);
+        }
+    }
+
+
+    /**
+        Removes a Sprite from this grid.
+    */
+    public void remove(Sprite sprite) {
+        Entry entry = entries.remove(sprite);
+        if (entry != null) {
+            removeFromCells(entry);
+        }
+    }
+
+
+    /**
+        Moves a Sprite to the cells its current bounds overlap.
+        Does nothing if the Sprite is still in the same cells.
+    */
+    public void update(Sprite sprite) {
+        Entry entry = entries.get(sprite);
+        if (entry == null) {
+            return;
+        }
+        int x = Math.round(sprite.getX());
+        int y = Math.round(sprite.getY());
+        int minCol = toCol(x);
+        int minRow = toRow(y);
+        int maxCol = toCol(x + sprite.getWidth() - 1);
+        int maxRow = toRow(y + sprite.getHeight() - 1);
+        if (minCol != entry.minCol || minRow != entry.minRow ||
+            maxCol != entry.maxCol || maxRow != entry.maxRow)
+        {
+            removeFromCells(entry);
+            entry.minCol = minCol;
+            entry.minRow = minRow;
+            entry.maxCol = maxCol;
+            entry.maxRow = maxRow;
+            addToCells(entry);
+        }
+    }
+
+
+    /**
+        Finds the Sprites stored in the cells overlapping the
+        specified area, in pixels, and returns how many were
+        found. The Sprites are only candidates: their bounds
+        still need to be checked. Get the results with
+        getResult().
+    */
+    public int query(int x, int y, int width, int height) {
+        int minCol = toCol(x);
+        int minRow = toRow(y);
+        int maxCol = toCol(x + width - 1);
+        int maxRow = toRow(y + height - 1);
+
+        // the stamp makes sure a Sprite in several cells is only
+        // returned once
+        queryStamp++;
+        numResults = 0;
+        for (int row=minRow; row<=maxRow; row++) {
+            for (int col=minCol; col<=maxCol; col++) {
+                int cell = row * cols + col;
+                Entry[] cellEntries = cells[cell];
+                int count = cellCounts[cell];
+                for (int i=0; i<count; i++) {
+                    Entry entry = cellEntries[i];
+                    if (entry.stamp != queryStamp) {
+                        entry.stamp = queryStamp;
+                        addResult(entry);
+                    }
+                }
+            }
+        }
+        sortResults();
+        return numResults;
+    }
+
+
+    /**
+        Gets a Sprite found by the last call to query().
+    */
+    public Sprite getResult(int index) {
+        return results[index].sprite;
+    }
+
+
+    private void addResult(Entry entry) {
+        if (numResults == results.length) {
+            Entry[] newResults = new Entry[results.length * 2];
+            System.arraycopy(results, 0, newResults, 0, numResults);
+            results = newResults;
+        }
+        results[numResults++] = entry;
+    }
+
+
+    private void sortResults() {
+        // insertion sort - there are only a few results, and
+        // they are often already in order
+        for (int i=1; i<numResults; i++) {
+            Entry entry = results[i];
+            int j = i - 1;
+            while (j >= 0 && results[j].sequence > entry.sequence) {
+                results[j + 1] = results[j];
+                j--;
+            }
+            results[j + 1] = entry;
+        }
+    }
+
+
+    private void setBounds(Entry entry, Sprite sprite) {
+        int x = Math.round(sprite.getX());
+        int y = Math.round(sprite.getY());
+        entry.minCol = toCol(x);
+        entry.minRow = toRow(y);
+        entry.maxCol = toCol(x + sprite.getWidth() - 1);
+        entry.maxRow = toRow(y + sprite.getHeight() - 1);
+    }
+
+
+    private void addToCells(Entry entry) {
+        for (int row=entry.minRow; row<=entry.maxRow; row++) {
+            for (int col=entry.minCol; col<=entry.maxCol; col++) {
+                int cell = row * cols + col;
+                Entry[] cellEntries = cells[cell];
+                int count = cellCounts[cell];
+                if (cellEntries == null) {
+                    cellEntries = takeSpareCell();
+                    cells[cell] = cellEntries;
+                }
+                else if (count == cellEntries.length) {
+                    Entry[] newEntries = new Entry[count * 2];
+                    System.arraycopy(cellEntries, 0, newEntries, 0,
+                        count);
+                    Arrays.fill(cellEntries, null);
+                    addSpareCell(cellEntries);
+                    numCellArrays++;
+                    cellEntries = newEntries;
+                    cells[cell] = cellEntries;
+                }
+                cellEntries[count] = entry;
+                cellCounts[cell] = count + 1;
+            }
+        }
+    }
+
+
+    private void removeFromCells(Entry entry) {
+        for (int row=entry.minRow; row<=entry.maxRow; row++) {
+            for (int col=entry.minCol; col<=entry.maxCol; col++) {
+                int cell = row * cols + col;
+                Entry[] cellEntries = cells[cell];
+                int count = cellCounts[cell];
+                for (int i=0; i<count; i++) {
+                    if (cellEntries[i] == entry) {
+                        // order inside a cell doesn't matter, so
+                        // move the last entry into the hole
+                        cellEntries[i] = cellEntries[count - 1];
+                        cellEntries[count - 1] = null;
+                        cellCounts[cell] = count - 1;
+                        if (count == 1) {
+                            cells[cell] = null;
+                            addSpareCell(cellEntries);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+
+    private Entry[] takeSpareCell() {
+        if (numSpareCells == 0) {
+            numCellArrays++;
+            return new Entry[INITIAL_CELL_CAPACITY];
+        }
+        Entry[] cellEntries = spareCells[--numSpareCells];
+        spareCells[numSpareCells] = null;
+        return cellEntries;
+    }
+
+
+    private void addSpareCell(Entry[] cellEntries) {
+        if (numSpareCells == spareCells.length) {
+            growSpareCells(numSpareCells * 2);
+        }
+        spareCells[numSpareCells++] = cellEntries;
+    }
+
+
+    private void growSpareCells(int capacity) {
+        Entry[][] newSpares = new Entry[capacity][];
+        System.arraycopy(spareCells, 0, newSpares, 0, numSpareCells);
+        spareCells = newSpares;
+    }
+
+
+    private int toCol(int x) {
+        return Math.min(Math.max(x >> CELL_SIZE_BITS, 0), cols - 1);
+    }
+
+
+    private int toRow(int y) {
+        return Math.min(Math.max(y >> CELL_SIZE_BITS, 0), rows - 1);
+    }
+
+
+    /**
+        A Sprite stored in the grid, with the range of cells it
+        is currently stored in.
+    */
+    private static class Entry {
+        final Sprite sprite;
+        final int sequence;
+        int minCol;
+        int minRow;
+        int maxCol;
+        int maxRow;
+        int stamp;
+
+        Entry(Sprite sprite, int sequence) {
+            this.sprite = sprite;
+            this.sequence = sequence;
+        }
+    }
+}
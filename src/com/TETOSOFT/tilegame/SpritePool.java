@@ -0,0 +1,81 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.ArrayList;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The SpritePool class keeps Sprites of one type that are no
+    longer used, so the next map can reuse them instead of
+    creating new ones. New Sprites are created by a Factory.
+
+    <p>Pools are used from the game thread and the map prefetch
+    thread, so all methods are synchronized.
+*/
+public class SpritePool {
+
+    /**
+        The Factory interface creates new Sprites for a pool.
+    */
+    public interface Factory {
+
+        /**
+            Creates a new Sprite, with its own Animations.
+        */
+        public Sprite create();
+    }
+
+    private Factory factory;
+    private ArrayList<Sprite> free;
+    private int numCreated;
+
+    /**
+        Creates a new, empty SpritePool that creates Sprites with
+        the specified Factory.
+    */
+    public SpritePool(Factory factory) {
+        this.factory = factory;
+        free = new ArrayList<Sprite>();
+    }
+
+
+    /**
+        Gets a Sprite from this pool, or creates a new one if the
+        pool is empty. A reused Sprite is reset first, so it is
+        just like a new one.
+    */
+    public synchronized Sprite obtain() {
+        if (free.isEmpty()) {
+            numCreated++;
+            return factory.create();
+        }
+        Sprite sprite = free.remove(free.size() - 1);
+        sprite.reset();
+        return sprite;
+    }
+
+
+    /**
+        Returns a Sprite to this pool. The Sprite must not be used
+        any more.
+    */
+    public synchronized void recycle(Sprite sprite) {
+        free.add(sprite);
+    }
+
+
+    /**
+        Gets the number of Sprites this pool has created.
+    */
+    public synchronized int getCreatedCount() {
+        return numCreated;
+    }
+
+
+    /**
+        Gets the number of Sprites waiting in this pool.
+    */
+    public synchronized int getFreeCount() {
+        return free.size();
+    }
+}
@@ -0,0 +1,80 @@
+package com.TETOSOFT.tilegame;
+
+import java.util.HashMap;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The SpriteRegistry class keeps a SpritePool for each kind of
+    Sprite in a map, by the character that places it in a map
+    file. Each kind must have its own Sprite class, which is how
+    recycle() finds the pool a Sprite came from.
+*/
+public class SpriteRegistry {
+
+    private SpritePool[] poolsByChar;
+    private HashMap<Class<?>, SpritePool> poolsByClass;
+
+    /**
+        Creates a new, empty SpriteRegistry.
+    */
+    public SpriteRegistry() {
+        poolsByChar = new SpritePool[128];
+        poolsByClass = new HashMap<Class<?>, SpritePool>();
+    }
+
+
+    /**
+        Registers the Factory for Sprites of the specified class,
+        placed in maps with the specified character. Returns the
+        new pool.
+    */
+    public SpritePool register(char ch,
+        Class<? extends Sprite> spriteClass, SpritePool.Factory factory)
+    {
+        SpritePool pool = new SpritePool(factory);
+        if (ch < poolsByChar.length) {
+            poolsByChar[ch] = pool;
+        }
+        poolsByClass.put(spriteClass, pool);
+        return pool;
+    }
+
+
+    /**
+        Registers the Factory for Sprites of the specified class
+        that aren't placed by a character in the map, like the
+        player. Returns the new pool.
+    */
+    public SpritePool register(Class<? extends Sprite> spriteClass,
+        SpritePool.Factory factory)
+    {
+        SpritePool pool = new SpritePool(factory);
+        poolsByClass.put(spriteClass, pool);
+        return pool;
+    }
+
+
+    /**
+        Gets a Sprite for a character in a map, or null if the
+        character doesn't place a Sprite.
+    */
+    public Sprite obtain(char ch) {
+        if (ch >= poolsByChar.length || poolsByChar[ch] == null) {
+            return null;
+        }
+        return poolsByChar[ch].obtain();
+    }
+
+
+    /**
+        Returns a Sprite to the pool of its class. Sprites of
+        classes that aren't registered are left alone.
+    */
+    public void recycle(Sprite sprite) {
+        SpritePool pool = poolsByClass.get(sprite.getClass());
+        if (pool != null) {
+            pool.recycle(sprite);
+        }
+    }
+}
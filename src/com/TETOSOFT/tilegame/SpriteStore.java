@@ -0,0 +1,232 @@
+package com.TETOSOFT.tilegame;
+
+import com.TETOSOFT.graphics.Sprite;
+
+/**
+    The SpriteStore class keeps the Sprites of a TileMap in a
+    dense array, so walking them is a simple loop over an array
+    and removing one costs the same no matter how many there are:
+    the last Sprite is moved into the hole.
+
+    <p>Because removing reorders the Sprites, each Sprite also
+    gets a handle that stays the same while it is in the store.
+    A handle has a generation count, so a handle to a removed
+    Sprite never finds a Sprite added later in the same slot.
+    The handle is kept in the Sprite itself, so looking it up
+    doesn't search anything, and a Sprite can only be in one
+    store at a time.
+
+    <p>While the store is locked, removed Sprites are only marked
+    and stay in place until unlock(), so code walking the Sprites
+    by index can remove Sprites as it goes.
+*/
+class SpriteStore {
+
+    /**
+        A handle that never refers to a Sprite.
+    */
+    public static final int NO_HANDLE = -1;
+
+    // handles are the slot in the low bits and the slot's
+    // generation above them
+    private static final int SLOT_BITS = 24;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the Sprites, and the slot of each one
+    private Sprite[] sprites;
+    private int[] spriteSlots;
+    private int count;
+
+    // the index in sprites of each slot, and its generation
+    private int[] slotIndexes;
+    private int[] slotGenerations;
+    private int numSlots;
+    private int[] freeSlots;
+    private int numFreeSlots;
+
+    private int lockCount;
+    private int[] removedSlots;
+    private int numRemoved;
+
+    /**
+        Creates a new, empty SpriteStore.
+    */
+    public SpriteStore() {
+        sprites = new Sprite[INITIAL_CAPACITY];
+        spriteSlots = new int[INITIAL_CAPACITY];
+        slotIndexes = new int[INITIAL_CAPACITY];
+        slotGenerations = new int[INITIAL_CAPACITY];
+        freeSlots = new int[INITIAL_CAPACITY];
+        removedSlots = new int[INITIAL_CAPACITY];
+    }
+
+
+    /**
+        Adds a Sprite to the end of this store and returns its
+        handle. Adding a Sprite that is already in the store just
+        returns its handle.
+    */
+    public int add(Sprite sprite) {
+        int existing = getHandle(sprite);
+        if (existing != NO_HANDLE) {
+            return existing;
+        }
+
+        int slot;
+        if (numFreeSlots > 0) {
+            slot = freeSlots[--numFreeSlots];
+        }
+        else {
+            if (numSlots == slotIndexes.length) {
+                slotIndexes = grow(slotIndexes);
+                slotGenerations = grow(slotGenerations);
+            }
+            slot = numSlots++;
+        }
+
+        if (count == sprites.length) {
+            Sprite[] newSprites = new Sprite[count * 2];
+            System.arraycopy(sprites, 0, newSprites, 0, count);
+            sprites = newSprites;
+            spriteSlots = grow(spriteSlots);
+        }
+        sprites[count] = sprite;
+        spriteSlots[count] = slot;
+        slotIndexes[slot] = count;
+        count++;
+
+        int handle = (slotGenerations[slot] << SLOT_BITS) | slot;
+        sprite.setStoreHandle(handle);
+        return handle;
+    }
+
+
+    /**
+        Removes a Sprite from this store. Its handle stops working
+        right away, but if the store is locked, the Sprite stays
+        at its index until unlock(). Returns false if the Sprite
+        isn't in the store.
+    */
+    public boolean remove(Sprite sprite) {
+        int handle = getHandle(sprite);
+        if (handle == NO_HANDLE) {
+            return false;
+        }
+        sprite.setStoreHandle(NO_HANDLE);
+        int slot = handle & SLOT_MASK;
+        slotGenerations[slot] =
+            (slotGenerations[slot] + 1) & GENERATION_MASK;
+        if (lockCount > 0) {
+            if (numRemoved == removedSlots.length) {
+                removedSlots = grow(removedSlots);
+            }
+            removedSlots[numRemoved++] = slot;
+        }
+        else {
+            removeSlot(slot);
+        }
+        return true;
+    }
+
+
+    /**
+        Gets the handle of a Sprite, or NO_HANDLE if it isn't in
+        this store.
+    */
+    public int getHandle(Sprite sprite) {
+        // the handle may be from another store the Sprite was in
+        int handle = sprite.getStoreHandle();
+        return (get(handle) == sprite) ? handle : NO_HANDLE;
+    }
+
+
+    /**
+        Gets the Sprite with the specified handle, or null if it
+        was removed.
+    */
+    public Sprite get(int handle) {
+        if (handle < 0) {
+            return null;
+        }
+        int slot = handle & SLOT_MASK;
+        if (slot >= numSlots ||
+            slotGenerations[slot] != (handle >>> SLOT_BITS))
+        {
+            return null;
+        }
+        return sprites[slotIndexes[slot]];
+    }
+
+
+    /**
+        Gets the number of Sprites in this store, including
+        Sprites removed while it is locked.
+    */
+    public int size() {
+        return count;
+    }
+
+
+    /**
+        Gets the Sprite at the specified index.
+    */
+    public Sprite getAt(int index) {
+        return sprites[index];
+    }
+
+
+    /**
+        Locks this store, so removed Sprites stay in place and
+        indexes don't change. Locks can be nested.
+    */
+    public void lock() {
+        lockCount++;
+    }
+
+
+    /**
+        Unlocks this store. When the last lock is released, the
+        Sprites removed while it was locked are taken out.
+    */
+    public void unlock() {
+        if (lockCount == 0) {
+            throw new IllegalStateException("Not locked");
+        }
+        lockCount--;
+        if (lockCount == 0) {
+            for (int i=0; i<numRemoved; i++) {
+                removeSlot(removedSlots[i]);
+            }
+            numRemoved = 0;
+        }
+    }
+
+
+    private void removeSlot(int slot) {
+        // move the last Sprite into the hole
+        int index = slotIndexes[slot];
+        int last = count - 1;
+        if (index != last) {
+            sprites[index] = sprites[last];
+            spriteSlots[index] = spriteSlots[last];
+            slotIndexes[spriteSlots[index]] = index;
+        }
+        sprites[last] = null;
+        count = last;
+
+        if (numFreeSlots == freeSlots.length) {
+            freeSlots = grow(freeSlots);
+        }
+        freeSlots[numFreeSlots++] = slot;
+    }
+
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,205 @@
+package com.TETOSOFT.tilegame;
+
+import java.awt.*;
+import java.awt.image.VolatileImage;
+
+import com.TETOSOFT.graphics.ImageRegion;
+
+/**
+    The TileLayerCache class draws the tiles of a TileMap from
+    prerendered chunks instead of drawing every tile every frame.
+
+    <p>The map is split into square chunks of CHUNK_TILES tiles.
+    Each chunk is rendered once into its own screen-compatible
+    image (a VolatileImage when possible) the first time it is
+    visible, so drawing the tile layer is just a few image copies.
+    A chunk is rendered again when one of its tiles changes, or
+    when the VolatileImage loses its contents. The chunks are kept
+    when the map is replaced by one with the same tiles, like when
+    a map is restarted.
+*/
+class TileLayerCache implements TileMap.TileListener {
+
+    /**
+        The size of a chunk, in tiles.
+    */
+    public static final int CHUNK_TILES = 8;
+
+    private static final int CHUNK_SIZE =
+        TileMapDrawer.tilesToPixels(CHUNK_TILES);
+
+    private TileMap map;
+    private GraphicsConfiguration gc;
+    private int chunkCols;
+    private int chunkRows;
+    private Image[] chunks;
+    private boolean[] dirty;
+    private boolean useVolatile = true;
+
+
+    /**
+        Draws the tiles of the specified map that are visible on
+        the screen, with the map's top-left corner drawn at
+        (offsetX, offsetY).
+    */
+    public void draw(Graphics2D g, TileMap map, int offsetX,
+        int offsetY, int screenWidth, int screenHeight)
+    {
+        if (map != this.map) {
+            setMap(map);
+        }
+        GraphicsConfiguration deviceConfig = g.getDeviceConfiguration();
+        if (deviceConfig != gc) {
+            // surfaces made for another device can't be reused
+            flush();
+            gc = deviceConfig;
+            useVolatile = true;
+        }
+
+        // get the chunks overlapping the screen
+        int firstCol = Math.max(0,
+            Math.floorDiv(-offsetX, CHUNK_SIZE));
+        int lastCol = Math.min(chunkCols - 1,
+            Math.floorDiv(screenWidth - 1 - offsetX, CHUNK_SIZE));
+        int firstRow = Math.max(0,
+            Math.floorDiv(-offsetY, CHUNK_SIZE));
+        int lastRow = Math.min(chunkRows - 1,
+            Math.floorDiv(screenHeight - 1 - offsetY, CHUNK_SIZE));
+
+        for (int row=firstRow; row<=lastRow; row++) {
+            for (int col=firstCol; col<=lastCol; col++) {
+                drawChunk(g, row * chunkCols + col,
+                    col * CHUNK_SIZE + offsetX,
+                    row * CHUNK_SIZE + offsetY);
+            }
+        }
+    }
+
+
+    // from the TileMap.TileListener interface
+    public void tileChanged(int x, int y) {
+        int col = x / CHUNK_TILES;
+        int row = y / CHUNK_TILES;
+        dirty[row * chunkCols + col] = true;
+    }
+
+
+    /**
+        Releases all chunk surfaces. They are created again the
+        next time they are drawn.
+    */
+    public void flush() {
+        if (chunks == null) {
+            return;
+        }
+        for (int i=0; i<chunks.length; i++) {
+            if (chunks[i] != null) {
+                chunks[i].flush();
+                chunks[i] = null;
+            }
+        }
+    }
+
+
+    private void setMap(TileMap newMap) {
+        if (map != null) {
+            map.removeTileListener(this);
+        }
+        if (newMap.hasSameTiles(map)) {
+            // a restarted map looks the same, so keep the chunks
+            map = newMap;
+            map.addTileListener(this);
+            return;
+        }
+        flush();
+        map = newMap;
+        map.addTileListener(this);
+        chunkCols = (map.getWidth() + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunkRows = (map.getHeight() + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunks = new Image[chunkCols * chunkRows];
+        dirty = new boolean[chunkCols * chunkRows];
+    }
+
+
+    private void drawChunk(Graphics2D g, int chunk, int x, int y) {
+        if (chunks[chunk] == null) {
+            chunks[chunk] = createChunkImage();
+            dirty[chunk] = true;
+        }
+
+        if (!(chunks[chunk] instanceof VolatileImage)) {
+            if (dirty[chunk]) {
+                renderChunk(chunk);
+            }
+            g.drawImage(chunks[chunk], x, y, null);
+            return;
+        }
+
+        // the usual VolatileImage loop: the surface can be lost
+        // at any time, so check again after drawing it
+        do {
+            VolatileImage image = (VolatileImage)chunks[chunk];
+            int status = image.validate(gc);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                image.flush();
+                chunks[chunk] = createChunkImage();
+                dirty[chunk] = true;
+            }
+            else if (status == VolatileImage.IMAGE_RESTORED) {
+                dirty[chunk] = true;
+            }
+            if (dirty[chunk]) {
+                renderChunk(chunk);
+            }
+            g.drawImage(chunks[chunk], x, y, null);
+        }
+        while (chunks[chunk] instanceof VolatileImage &&
+            ((VolatileImage)chunks[chunk]).contentsLost());
+    }
+
+
+    private Image createChunkImage() {
+        if (useVolatile) {
+            try {
+                VolatileImage image = gc.createCompatibleVolatileImage(
+                    CHUNK_SIZE, CHUNK_SIZE, Transparency.TRANSLUCENT);
+                if (image != null) {
+                    return image;
+                }
+            }
+            catch (UnsupportedOperationException ex) {
+                // not supported here
+            }
+            // don't try again for this device
+            useVolatile = false;
+        }
+        return gc.createCompatibleImage(CHUNK_SIZE, CHUNK_SIZE,
+            Transparency.TRANSLUCENT);
+    }
+
+
+    private void renderChunk(int chunk) {
+        int firstTileX = (chunk % chunkCols) * CHUNK_TILES;
+        int firstTileY = (chunk / chunkCols) * CHUNK_TILES;
+        Graphics2D g = (Graphics2D)chunks[chunk].getGraphics();
+
+        // clear to transparent
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, CHUNK_SIZE, CHUNK_SIZE);
+        g.setComposite(AlphaComposite.SrcOver);
+
+        for (int y=0; y<CHUNK_TILES; y++) {
+            for (int x=0; x<CHUNK_TILES; x++) {
+                ImageRegion tile = map.getTile(firstTileX + x,
+                    firstTileY + y);
+                if (tile != null) {
+                    tile.draw(g,
+                        TileMapDrawer.tilesToPixels(x),
+                        TileMapDrawer.tilesToPixels(y));
+                }
+            }
+        }
+        g.dispose();
+        dirty[chunk] = false;
+    }
+}
@@ -1,30 +1,115 @@
 package com.TETOSOFT.tilegame;
 
-import java.awt.Image;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.TETOSOFT.graphics.BodyStore;
+import com.TETOSOFT.graphics.ImageRegion;
 import com.TETOSOFT.graphics.Sprite;
 
 /**
     The TileMap class contains the data for a tile-based
-    map, including Sprites. Each tile is a reference to an
-    Image. Of course, Images are used multiple times in the tile
-    map.
+    map, including Sprites. Each tile is stored as a one-byte
+    tile ID, row by row, and the IDs index into a palette of
+    ImageRegions shared by the whole map. ID 0 is an empty tile.
+
+    <p>A bit set marks the solid tiles, so collision checks
+    don't need to look at the Images at all.
+
+    <p>The Sprites are kept in a SpriteStore, a dense array walked
+    with getSpriteCount() and getSprite(), and in a SpriteGrid so
+    the Sprites near an area can be found quickly with
+    querySprites(). Their positions and velocities are kept in a
+    BodyStore, so physics can be applied to all of them at once.
 */
 public class TileMap {
 
-    private Image[][] tiles;
-    private LinkedList sprites;
+    /**
+        The ID of an empty tile.
+    */
+    public static final int EMPTY_TILE = 0;
+
+    /**
+        The maximum number of ImageRegions in a tile palette.
+    */
+    public static final int MAX_PALETTE_SIZE = 256;
+
+    // maps are made on the prefetch thread too
+    private static final AtomicLong nextSerial = new AtomicLong();
+
+    private final long serial = nextSerial.incrementAndGet();
+    private int width;
+    private int height;
+    private byte[] tiles;
+    private long[] solidTiles;
+    private ImageRegion[] palette;
+    private SpriteStore sprites;
+    private BodyStore bodies;
+    private SpriteGrid spriteGrid;
     private Sprite player;
+    private Sprite[] spawnedSprites;
+    private ArrayList<TileListener> tileListeners =
+        new ArrayList<TileListener>();
+
+    /**
+        The TileListener interface receives notifications when a
+        tile of a TileMap changes.
+    */
+    public interface TileListener {
+
+        /**
+            Called after the tile at the specified location was
+            set.
+        */
+        public void tileChanged(int x, int y);
+    }
 
     /**
         Creates a new TileMap with the specified width and
-        height (in number of tiles) of the map.
+        height (in number of tiles) of the map. The palette holds
+        the ImageRegion for each tile ID; palette[0] is the empty
+        tile and should be null.
+    */
+    public TileMap(int width, int height, ImageRegion[] palette) {
+        if (palette.length > MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException(
+                "Too many tile images: " + palette.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        tiles = new byte[width * height];
+        solidTiles = new long[(width * height + 63) >> 6];
+        sprites = new SpriteStore();
+        bodies = new BodyStore();
+        spriteGrid = new SpriteGrid(
+            TileMapDrawer.tilesToPixels(width),
+            TileMapDrawer.tilesToPixels(height));
+    }
+
+
+    /**
+        Creates a new TileMap with a copy of the tiles of another
+        map, and no Sprites.
+    */
+    public TileMap(TileMap source) {
+        this(source.width, source.height, source.palette);
+        System.arraycopy(source.tiles, 0, tiles, 0, tiles.length);
+        System.arraycopy(source.solidTiles, 0, solidTiles, 0,
+            solidTiles.length);
+    }
+
+
+    /**
+        Gets the serial number of this TileMap. Every TileMap made
+        gets a different one, so it tells maps apart even when
+        they are loaded from the same file.
     */
-    public TileMap(int width, int height) {
-        tiles = new Image[width][height];
-        sprites = new LinkedList();
+    public long getSerial() {
+        return serial;
     }
 
 
@@ -32,7 +117,7 @@ public class TileMap {
         Gets the width of this TileMap (number of tiles across).
     */
     public int getWidth() {
-        return tiles.length;
+        return width;
     }
 
 
@@ -40,7 +125,7 @@ public class TileMap {
         Gets the height of this TileMap (number of tiles down).
     */
     public int getHeight() {
-        return tiles[0].length;
+        return height;
     }
 
 
@@ -49,23 +134,110 @@ public class TileMap {
         no tile is at the location or if the location is out of
         bounds.
     */
-    public Image getTile(int x, int y) {
-        if (x < 0 || x >= getWidth() ||
-            y < 0 || y >= getHeight())
+    public ImageRegion getTile(int x, int y) {
+        return palette[getTileId(x, y)];
+    }
+
+
+    /**
+        Gets the ID of the tile at the specified location.
+        Returns EMPTY_TILE if no tile is at the location or if
+        the location is out of bounds.
+    */
+    public int getTileId(int x, int y) {
+        if (x < 0 || x >= width ||
+            y < 0 || y >= height)
+        {
+            return EMPTY_TILE;
+        }
+        else {
+            return tiles[y * width + x] & 0xff;
+        }
+    }
+
+
+    /**
+        Checks if the tile at the specified location is solid.
+        Returns false if the location is out of bounds.
+    */
+    public boolean isSolid(int x, int y) {
+        if (x < 0 || x >= width ||
+            y < 0 || y >= height)
         {
-            return null;
+            return false;
+        }
+        int index = y * width + x;
+        return (solidTiles[index >> 6] & (1L << index)) != 0;
+    }
+
+
+    /**
+        Sets the ID of the tile at the specified location.
+    */
+    public void setTile(int x, int y, int tileId) {
+        if (tileId < 0 || tileId >= palette.length) {
+            throw new IllegalArgumentException(
+                "Unknown tile ID: " + tileId);
+        }
+        int index = y * width + x;
+        tiles[index] = (byte)tileId;
+        if (tileId != EMPTY_TILE) {
+            solidTiles[index >> 6] |= (1L << index);
         }
         else {
-            return tiles[x][y];
+            solidTiles[index >> 6] &= ~(1L << index);
+        }
+        for (int i=0; i<tileListeners.size(); i++) {
+            tileListeners.get(i).tileChanged(x, y);
+        }
+    }
+
+
+    /**
+        Sets all the tiles of this map from a MapTemplate of the
+        same size. Tile IDs that are not in the palette are
+        left empty. TileListeners are not notified, so this
+        should only be used on a new map.
+    */
+    void setTiles(MapTemplate template) {
+        template.copyTiles(tiles);
+        Arrays.fill(solidTiles, 0);
+        for (int i=0; i<tiles.length; i++) {
+            int tileId = tiles[i] & 0xff;
+            if (tileId >= palette.length) {
+                tiles[i] = EMPTY_TILE;
+            }
+            else if (tileId != EMPTY_TILE) {
+                solidTiles[i >> 6] |= (1L << i);
+            }
         }
     }
 
 
     /**
-        Sets the tile at the specified location.
+        Checks if this map has the same size, palette and tiles as
+        another map, like a restarted copy of the same map.
+    */
+    boolean hasSameTiles(TileMap other) {
+        return (other != null && width == other.width &&
+            height == other.height && palette == other.palette &&
+            Arrays.equals(tiles, other.tiles));
+    }
+
+
+    /**
+        Adds a TileListener to be notified when a tile changes.
+    */
+    public void addTileListener(TileListener listener) {
+        tileListeners.add(listener);
+    }
+
+
+    /**
+        Removes a TileListener from this map.
     */
-    public void setTile(int x, int y, Image tile) {
-        tiles[x][y] = tile;
+    public void removeTileListener(TileListener listener) {
+        tileListeners.remove(listener);
     }
 
 
@@ -85,28 +257,181 @@ public class TileMap {
     }
 
 
+    /**
+        Gets the Sprites the MapLoader created for this map,
+        including the ones removed since, or null.
+    */
+    Sprite[] getSpawnedSprites() {
+        return spawnedSprites;
+    }
+
+
+    /**
+        Sets the Sprites the MapLoader created for this map, so
+        they can be recycled when the map is done.
+    */
+    void setSpawnedSprites(Sprite[] spawnedSprites) {
+        this.spawnedSprites = spawnedSprites;
+    }
+
+
     /**
         Adds a Sprite object to this map.
     */
     public void addSprite(Sprite sprite) {
         sprites.add(sprite);
+        sprite.attachBody(bodies);
+        spriteGrid.add(sprite);
     }
 
 
     /**
-        Removes a Sprite object from this map.
+        Removes a Sprite object from this map. The last Sprite is
+        moved into its place, so the order of the Sprites changes.
+        While the Sprites are locked, the Sprite is only taken out
+        of the Sprite list when they are unlocked, but
+        querySprites() stops finding it right away.
     */
     public void removeSprite(Sprite sprite) {
-        sprites.remove(sprite);
+        if (sprites.remove(sprite)) {
+            spriteGrid.remove(sprite);
+            sprite.detachBody();
+        }
+    }
+
+
+    /**
+        Locks the Sprite list, so removing Sprites doesn't change
+        the index of any Sprite until unlockSprites() is called.
+        Used while walking the Sprites with getSprite().
+    */
+    public void lockSprites() {
+        sprites.lock();
+    }
+
+
+    /**
+        Unlocks the Sprite list, taking out the Sprites removed
+        while it was locked.
+    */
+    public void unlockSprites() {
+        sprites.unlock();
+    }
+
+
+    /**
+        Gets the BodyStore holding the positions and velocities
+        of the Sprites in this map, excluding the player Sprite.
+    */
+    public BodyStore getBodyStore() {
+        return bodies;
+    }
+
+
+    /**
+        Gets the number of Sprites in this map, excluding the
+        player Sprite.
+    */
+    public int getSpriteCount() {
+        return sprites.size();
+    }
+
+
+    /**
+        Gets the Sprite at the specified index, from 0 to
+        getSpriteCount() - 1.
+    */
+    public Sprite getSprite(int index) {
+        return sprites.getAt(index);
+    }
+
+
+    /**
+        Gets the handle of a Sprite in this map. Unlike its
+        index, the handle of a Sprite never changes while it is
+        in the map. Returns -1 if the Sprite isn't in the map.
+    */
+    public int getSpriteHandle(Sprite sprite) {
+        return sprites.getHandle(sprite);
+    }
+
+
+    /**
+        Gets the Sprite with the specified handle, or null if it
+        was removed from the map.
+    */
+    public Sprite getSpriteByHandle(int handle) {
+        return sprites.get(handle);
+    }
+
+
+    /**
+        Tells this map that a Sprite has moved, so querySprites()
+        can find it at its new location. Should be called after
+        changing the position of a Sprite in this map.
+    */
+    public void updateSprite(Sprite sprite) {
+        spriteGrid.update(sprite);
+    }
+
+
+    /**
+        Finds the Sprites that may overlap the specified area, in
+        pixels, and returns how many were found. The player is
+        never included. Get the Sprites with getQueriedSprite(),
+        which returns them in the order they were added.
+        The results are only valid until the next query.
+    */
+    public int querySprites(int x, int y, int width, int height) {
+        return spriteGrid.query(x, y, width, height);
+    }
+
+
+    /**
+        Gets a Sprite found by the last call to querySprites().
+    */
+    public Sprite getQueriedSprite(int index) {
+        return spriteGrid.getResult(index);
     }
 
 
     /**
         Gets an Iterator of all the Sprites in this map,
-        excluding the player Sprite.
+        excluding the player Sprite. Removing a Sprite through
+        the Iterator removes it from the map.
     */
-    public Iterator getSprites() {
-        return sprites.iterator();
+    public Iterator<Sprite> getSprites() {
+        return new Iterator<Sprite>() {
+            private int index;
+            private Sprite current;
+
+            public boolean hasNext() {
+                return index < sprites.size();
+            }
+
+            public Sprite next() {
+                if (index >= sprites.size()) {
+                    throw new NoSuchElementException();
+                }
+                current = sprites.getAt(index++);
+                return current;
+            }
+
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                removeSprite(current);
+                if (index <= sprites.size() &&
+                    sprites.getAt(index - 1) != current)
+                {
+                    // the last Sprite was moved into the hole, so
+                    // look at this index again
+                    index--;
+                }
+                current = null;
+            }
+        };
     }
 
 }
@@ -1,10 +1,8 @@
 package com.TETOSOFT.tilegame;
 
 import java.awt.*;
-import java.util.Iterator;
 
 import com.TETOSOFT.graphics.Sprite;
-import com.TETOSOFT.tilegame.sprites.Creature;
 
 /**
     The TileMapRenderer class draws a TileMap on the screen.
@@ -18,6 +16,9 @@ import com.TETOSOFT.tilegame.sprites.Creature;
     <p>Also, three static methods are provided to convert pixels
     to tile positions, and vice-versa.
 
+    <p>The tiles are drawn from chunks prerendered by a
+    TileLayerCache, which are rebuilt when a tile changes.
+
     <p>This TileMapRender uses a tile size of 64.
 */
 public class TileMapDrawer 
@@ -29,6 +30,7 @@ public class TileMapDrawer
     private static final int TILE_SIZE_BITS = 6;
 
     private Image background;
+    private TileLayerCache tileLayer = new TileLayerCache();
 
     /**
         Converts a pixel position to a tile position.
@@ -78,6 +80,18 @@ public class TileMapDrawer
     */
     public void draw(Graphics2D g, TileMap map,
         int screenWidth, int screenHeight)
+    {
+        draw(g, map, screenWidth, screenHeight, 1);
+    }
+
+
+    /**
+        Draws the specified TileMap, with Sprites interpolated
+        between their last two updated positions. An alpha of 1
+        draws the Sprites at their current positions.
+    */
+    public void draw(Graphics2D g, TileMap map,
+        int screenWidth, int screenHeight, float alpha)
     {
         Sprite player = map.getPlayer();
         int mapWidth = tilesToPixels(map.getWidth());
@@ -85,7 +99,7 @@ public class TileMapDrawer
         // get the scrolling position of the map
         // based on player's position
         int offsetX = screenWidth / 2 -
-            Math.round(player.getX()) - TILE_SIZE;
+            Math.round(player.getDrawX(alpha)) - TILE_SIZE;
         offsetX = Math.min(offsetX, 0);
         offsetX = Math.max(offsetX, screenWidth - mapWidth);
 
@@ -112,41 +126,29 @@ public class TileMapDrawer
         
         }
 
-        // draw the visible tiles
-        int firstTileX = pixelsToTiles(-offsetX);
-        int lastTileX = firstTileX +
-            pixelsToTiles(screenWidth) + 1;
-        for (int y=0; y<map.getHeight(); y++) {
-            for (int x=firstTileX; x <= lastTileX; x++) {
-                Image image = map.getTile(x, y);
-                if (image != null) {
-                    g.drawImage(image,
-                        tilesToPixels(x) + offsetX,
-                        tilesToPixels(y) + offsetY,
-                        null);
-                }
-            }
-        }
+        // draw the visible tiles from the prerendered chunks
+        tileLayer.draw(g, map, offsetX, offsetY,
+            screenWidth, screenHeight);
 
         // draw player
-        g.drawImage(player.getImage(),
-            Math.round(player.getX()) + offsetX,
-            Math.round(player.getY()) + offsetY,
-            null);
-
-        // draw sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite sprite = (Sprite)i.next();
-            int x = Math.round(sprite.getX()) + offsetX;
-            int y = Math.round(sprite.getY()) + offsetY;
-            g.drawImage(sprite.getImage(), x, y, null);
-
-            // wake up the creature when it's on screen
-            if (sprite instanceof Creature &&
-                x >= 0 && x < screenWidth)
+        player.getRegion().draw(g,
+            Math.round(player.getDrawX(alpha)) + offsetX,
+            Math.round(player.getDrawY(alpha)) + offsetY);
+
+        // draw sprites. Only the sprites in the columns on screen
+        // are looked at.
+        int count = map.querySprites(-offsetX - TILE_SIZE,
+            -offsetY - TILE_SIZE,
+            screenWidth + 2 * TILE_SIZE,
+            screenHeight + 2 * TILE_SIZE);
+        for (int i=0; i<count; i++) {
+            Sprite sprite = map.getQueriedSprite(i);
+            int x = Math.round(sprite.getDrawX(alpha)) + offsetX;
+            int y = Math.round(sprite.getDrawY(alpha)) + offsetY;
+            if (x + sprite.getWidth() > 0 && x < screenWidth &&
+                y + sprite.getHeight() > 0 && y < screenHeight)
             {
-                ((Creature)sprite).wakeUp();
+                sprite.getRegion().draw(g, x, y);
             }
         }
     }
@@ -1,6 +1,6 @@
 package com.TETOSOFT.tilegame.sprites;
 
-import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
 import com.TETOSOFT.graphics.*;
 
 /**
@@ -41,21 +41,76 @@ public abstract class Creature extends Sprite {
     }
 
 
-    public Object clone() {
-        // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
-        try {
-            return constructor.newInstance(new Object[] {
-                (Animation)left.clone(),
-                (Animation)right.clone(),
-                (Animation)deadLeft.clone(),
-                (Animation)deadRight.clone()
-            });
+    /**
+        Resets this Creature so it can be used again, alive and
+        facing right like a new Creature.
+    */
+    public void reset() {
+        anim = right;
+        state = STATE_NORMAL;
+        stateTime = 0;
+        super.reset();
+    }
+
+
+    public int getStateSize() {
+        return 1 + 4 + 8 + super.getStateSize();
+    }
+
+
+    /**
+        Writes the state of this Creature: which Animation it
+        shows, its state and how long it has been in it, and the
+        state of a Sprite.
+    */
+    public void writeState(ByteBuffer out) {
+        out.put((byte)getAnimationIndex());
+        out.putInt(state);
+        out.putLong(stateTime);
+        super.writeState(out);
+    }
+
+
+    /**
+        Puts this Creature back in the state written by
+        writeState(). Unlike setState(), nothing else is changed
+        by the state being set.
+    */
+    public void readState(ByteBuffer in) {
+        anim = getAnimation(in.get());
+        state = in.getInt();
+        stateTime = in.getLong();
+        super.readState(in);
+        setAffectedByGravity(!isFlying());
+    }
+
+
+    /**
+        Gets which of the four Animations is shown, in the order
+        they are passed to the constructor.
+    */
+    private int getAnimationIndex() {
+        if (anim == left) {
+            return 0;
+        }
+        else if (anim == right) {
+            return 1;
+        }
+        else if (anim == deadLeft) {
+            return 2;
+        }
+        else {
+            return 3;
         }
-        catch (Exception ex) {
-            // should never happen
-            ex.printStackTrace();
-            return null;
+    }
+
+
+    private Animation getAnimation(int index) {
+        switch (index) {
+            case 0: return left;
+            case 1: return right;
+            case 2: return deadLeft;
+            default: return deadRight;
         }
     }
 
@@ -100,10 +155,22 @@ public abstract class Creature extends Sprite {
                 setVelocityX(0);
                 setVelocityY(0);
             }
+            // flying may depend on the state
+            setAffectedByGravity(!isFlying());
         }
     }
 
 
+    /**
+        Attaches this Creature to a BodyStore, where it is
+        affected by gravity unless it is flying.
+    */
+    public void attachBody(BodyStore bodies) {
+        super.attachBody(bodies);
+        setAffectedByGravity(!isFlying());
+    }
+
+
     /**
         Checks if this creature is alive.
     */
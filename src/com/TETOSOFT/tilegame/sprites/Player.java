@@ -1,5 +1,7 @@
 package com.TETOSOFT.tilegame.sprites;
 
+import java.nio.ByteBuffer;
+
 import com.TETOSOFT.graphics.Animation;
 
 /**
@@ -18,6 +20,29 @@ public class Player extends Creature
     }
 
 
+    public void reset() {
+        onGround = false;
+        super.reset();
+    }
+
+
+    public int getStateSize() {
+        return super.getStateSize() + 1;
+    }
+
+
+    public void writeState(ByteBuffer out) {
+        super.writeState(out);
+        out.put((byte)(onGround ? 1 : 0));
+    }
+
+
+    public void readState(ByteBuffer in) {
+        super.readState(in);
+        onGround = (in.get() != 0);
+    }
+
+
     public void collideHorizontal() {
         setVelocityX(0);
     }
@@ -1,6 +1,5 @@
 package com.TETOSOFT.tilegame.sprites;
 
-import java.lang.reflect.Constructor;
 import com.TETOSOFT.graphics.*;
 
 /**
@@ -12,21 +11,6 @@ public abstract class PowerUp extends Sprite {
         super(anim);
     }
 
-    public Object clone() {
-        // use reflection to create the correct subclass
-        Constructor constructor = getClass().getConstructors()[0];
-        try {
-            return constructor.newInstance(
-                new Object[] {(Animation)anim.clone()});
-        }
-        catch (Exception ex) {
-            // should never happen
-            ex.printStackTrace();
-            return null;
-        }
-    }
-
-
     /**
         A Star PowerUp. Gives the player points.
     */
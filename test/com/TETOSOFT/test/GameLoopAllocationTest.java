@@ -0,0 +1,299 @@
+package com.TETOSOFT.test;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import com.TETOSOFT.graphics.Sprite;
+import com.TETOSOFT.input.ScriptedInput;
+import com.TETOSOFT.tilegame.GameEngine;
+import com.TETOSOFT.tilegame.TileMap;
+import com.TETOSOFT.tilegame.sprites.Creature;
+import com.TETOSOFT.tilegame.sprites.PowerUp;
+
+/**
+    Checks that the game loop doesn't allocate memory once it is
+    running, so the garbage collector never has a reason to pause
+    a frame. The game is run headless, drawing each frame into an
+    offscreen image through GameCore.drawScreen(), like the game
+    loops do, and the bytes allocated by the test thread are
+    measured around each frame.
+
+    <p>The player is driven by LAP, a script that walks, jumps,
+    collects coins and kills creatures on the first map, then runs
+    into a creature, so the map is loaded again and the lap starts
+    over. Frames in which the map changes are skipped, since
+    loading a map allocates.
+
+    <p>The Graphics each frame is drawn with is the one thing a
+    frame is allowed to allocate: the game gets a new one from the
+    screen every frame. It is measured on its own and taken out of
+    the frame, and its size is printed.
+
+    <p>The test must be run from the directory with the images and
+    maps, which is where "ant test" runs it.
+*/
+public class GameLoopAllocationTest extends TestCase {
+
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int FRAMES = 10000;
+    private static final int SCREEN_WIDTH = 800;
+    private static final int SCREEN_HEIGHT = 600;
+
+    /**
+        The input of a lap of the first map, in ticks from the
+        start of the lap.
+    */
+    private static final String[] LAP = {
+        // let go of the keys held from the last lap
+        "0    moveLeft   release",
+        // run right onto a grub
+        "0    moveRight  press",
+        "95   jump       press",
+        "105  jump       release",
+        "105  moveRight  release",
+        // jump up to the platform, for a coin and a grub
+        "145  jump       press",
+        "150  jump       release",
+        "185  moveRight  press",
+        "200  jump       press",
+        "210  jump       release",
+        "260  moveRight  release",
+        // walk off it for another coin, a grub and a fly
+        "300  moveRight  press",
+        // turn around and run into a creature
+        "430  moveRight  release",
+        "430  moveLeft   press",
+    };
+
+    private com.sun.management.ThreadMXBean threads;
+    private long threadId;
+    private long measureCost;
+
+    private OffscreenEngine engine;
+
+    // what the player did while frames were measured
+    private int laps;
+    private int coins;
+    private int kills;
+    private int jumps;
+
+
+    protected void setUp() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+
+    public void testSteadyFramesDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            fail("Thread allocation counting is not supported by " +
+                "this VM");
+        }
+        threads = (com.sun.management.ThreadMXBean)bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        threadId = Thread.currentThread().getId();
+
+        engine = new OffscreenEngine(new BufferedImage(SCREEN_WIDTH,
+            SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB));
+        engine.setHeadless(true);
+        engine.setOffscreenConfiguration(engine.getConfiguration());
+        engine.init();
+        startLap();
+
+        // let the JIT compiler finish, and the pools and caches
+        // fill up
+        for (int i=0; i<WARMUP_FRAMES; i++) {
+            TileMap map = engine.getMap();
+            runFrame();
+            if (engine.getMap() != map) {
+                startLap();
+            }
+        }
+        calibrate();
+
+        long allocated = 0;
+        long graphicsBytes = 0;
+        int allocatingFrames = 0;
+        int skippedFrames = 0;
+        laps = coins = kills = jumps = 0;
+        TileMap map = engine.getMap();
+        int numStars = countStars(map);
+        int numCreatures = countCreatures(map);
+        boolean jumping = isJumping(map);
+        for (int i=0; i<FRAMES; i++) {
+            engine.graphicsBytes = 0;
+            long start = allocatedBytes();
+            runFrame();
+            long bytes = allocatedBytes() - start - measureCost -
+                engine.graphicsBytes;
+            graphicsBytes = Math.max(graphicsBytes,
+                engine.graphicsBytes);
+
+            if (engine.getMap() != map) {
+                skippedFrames++;
+                laps++;
+                startLap();
+                map = engine.getMap();
+                numStars = countStars(map);
+                numCreatures = countCreatures(map);
+                jumping = isJumping(map);
+                continue;
+            }
+            if (bytes > 0) {
+                allocated += bytes;
+                allocatingFrames++;
+            }
+
+            int stars = countStars(map);
+            coins += numStars - stars;
+            numStars = stars;
+            int creatures = countCreatures(map);
+            kills += numCreatures - creatures;
+            numCreatures = creatures;
+            boolean wasJumping = jumping;
+            jumping = isJumping(map);
+            if (jumping && !wasJumping) {
+                jumps++;
+            }
+        }
+
+        System.out.println("Frames: " + FRAMES + " (" + skippedFrames +
+            " skipped for map changes)");
+        System.out.println("Laps: " + laps + ", coins: " + coins +
+            ", kills: " + kills + ", jumps: " + jumps);
+        System.out.println("Graphics per frame: " + graphicsBytes +
+            " bytes (not counted)");
+        System.out.println("Allocated: " + allocated + " bytes in " +
+            allocatingFrames + " frames");
+
+        assertTrue("The player finished no lap", laps > 0);
+        assertTrue("The player collected no coins", coins > 0);
+        assertTrue("The player killed no creatures", kills > 0);
+        assertTrue("The player didn't jump", jumps > 0);
+        assertEquals("Bytes allocated in " + allocatingFrames +
+            " frames", 0, allocated);
+    }
+
+
+    private void runFrame() {
+        engine.update(17);
+        engine.drawScreen(0.5f);
+    }
+
+
+    /**
+        Schedules the LAP script from the next tick on.
+    */
+    private void startLap() {
+        ScriptedInput input = engine.getScriptedInput();
+        long start = engine.getTick();
+        for (int i=0; i<LAP.length; i++) {
+            String[] event = LAP[i].trim().split("\\s+");
+            input.addEvent(start + Long.parseLong(event[0]), event[1],
+                event[2].equals("press"));
+        }
+    }
+
+
+    private int countStars(TileMap map) {
+        int count = 0;
+        Iterator<Sprite> i = map.getSprites();
+        while (i.hasNext()) {
+            if (i.next() instanceof PowerUp.Star) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+        Counts the creatures that haven't been killed.
+    */
+    private int countCreatures(TileMap map) {
+        int count = 0;
+        Iterator<Sprite> i = map.getSprites();
+        while (i.hasNext()) {
+            Sprite sprite = i.next();
+            if (sprite instanceof Creature &&
+                ((Creature)sprite).getState() == Creature.STATE_NORMAL)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private boolean isJumping(TileMap map) {
+        return map.getPlayer().getVelocityY() < 0;
+    }
+
+
+    /**
+        Measures how many bytes measuring allocates itself, so it
+        can be taken out of the results.
+    */
+    private void calibrate() {
+        long cost = Long.MAX_VALUE;
+        for (int i=0; i<1000; i++) {
+            long start = allocatedBytes();
+            cost = Math.min(cost, allocatedBytes() - start);
+        }
+        measureCost = cost;
+    }
+
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(threadId);
+    }
+
+
+    /**
+        A GameEngine that draws its frames into an image instead of
+        the screen. Like the screen, it gets a new Graphics for each
+        frame, and counts the bytes that takes in graphicsBytes.
+    */
+    private class OffscreenEngine extends GameEngine {
+
+        private final BufferedImage image;
+        long graphicsBytes;
+
+        OffscreenEngine(BufferedImage image) {
+            this.image = image;
+        }
+
+
+        GraphicsConfiguration getConfiguration() {
+            Graphics2D g = image.createGraphics();
+            GraphicsConfiguration gc =
+                g.getDeviceConfiguration();
+            g.dispose();
+            return gc;
+        }
+
+
+        protected Graphics2D getDrawGraphics() {
+            long start = allocatedBytes();
+            Graphics2D g = image.createGraphics();
+            graphicsBytes += allocatedBytes() - start - measureCost;
+            return g;
+        }
+
+
+        protected void showFrame() {
+            // the frame stays in the image
+        }
+
+
+        public void draw(Graphics2D g, float alpha) {
+            drawFrame(g, SCREEN_WIDTH, SCREEN_HEIGHT, alpha);
+        }
+    }
+}